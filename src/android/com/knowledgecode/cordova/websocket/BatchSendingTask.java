@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.knowledgecode.cordova.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.PluginResult;
+import org.apache.cordova.PluginResult.Status;
+import org.eclipse.jetty.websocket.WebSocket.Connection;
+import org.json.JSONArray;
+
+import com.knowledgecode.cordova.websocket.TaskRunner.Task;
+
+/**
+ * Send several messages at once.
+ * The arguments are the id, a string of types ('0' for text, '1' for binary) and the messages.
+ */
+class BatchSendingTask implements Task {
+
+    private final ConnectionMap _map;
+
+    /**
+     * Constructor
+     *
+     * @param map
+     */
+    public BatchSendingTask(ConnectionMap map) {
+        _map = map;
+    }
+
+    @Override
+    public void execute(String rawArgs, CallbackContext ctx) {
+        try {
+            CordovaArgs args = new CordovaArgs(new JSONArray(rawArgs));
+            Connection conn = _map.get(Integer.parseInt(args.getString(0), 16));
+            if (conn != null) {
+                String types = args.getString(1);
+                List<Object> messages = new ArrayList<Object>(types.length());
+
+                for (int i = 0; i < types.length(); i++) {
+                    if (types.charAt(i) == '1') {
+                        messages.add(args.getArrayBuffer(i + 2));
+                    } else {
+                        messages.add(args.getString(i + 2));
+                    }
+                }
+                conn.sendMessages(messages);
+            }
+            ctx.success();
+        } catch (Exception e) {
+            if (!ctx.isFinished()) {
+                ctx.sendPluginResult(new PluginResult(Status.ERROR));
+            }
+        }
+    }
+}
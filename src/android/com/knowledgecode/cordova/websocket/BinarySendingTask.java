@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.knowledgecode.cordova.websocket;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.PluginResult;
+import org.apache.cordova.PluginResult.Status;
+import org.eclipse.jetty.websocket.WebSocket.Connection;
+import org.json.JSONArray;
+
+import com.knowledgecode.cordova.websocket.TaskRunner.Task;
+
+/**
+ * Send binary data passed as an ArrayBuffer.
+ */
+class BinarySendingTask implements Task {
+
+    private final ConnectionMap _map;
+
+    /**
+     * Constructor
+     *
+     * @param map
+     */
+    public BinarySendingTask(ConnectionMap map) {
+        _map = map;
+    }
+
+    @Override
+    public void execute(String rawArgs, CallbackContext ctx) {
+        try {
+            CordovaArgs args = new CordovaArgs(new JSONArray(rawArgs));
+            Connection conn = _map.get(Integer.parseInt(args.getString(0), 16));
+            if (conn != null) {
+                byte[] binary = args.getArrayBuffer(1);
+                conn.sendMessage(binary, 0, binary.length);
+            }
+            ctx.success();
+        } catch (Exception e) {
+            if (!ctx.isFinished()) {
+                ctx.sendPluginResult(new PluginResult(Status.ERROR));
+            }
+        }
+    }
+}
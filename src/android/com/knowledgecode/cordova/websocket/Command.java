@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.knowledgecode.cordova.websocket;
+
+/**
+ * Decode commands in the compact format without building a JSONArray.
+ * A command is a single string argument made of an 8-digit hex id, the format version and the payload,
+ * so the raw arguments look like ["0000002a1payload"].
+ */
+final class Command {
+
+    static final char VERSION = '1';
+
+    private static final int ID_OFFSET = 2;
+    private static final int ID_LENGTH = 8;
+    private static final int PAYLOAD_OFFSET = ID_OFFSET + ID_LENGTH + 1;
+
+    private Command() {
+    }
+
+    /**
+     * Get the connection id.
+     *
+     * @param rawArgs
+     * @return id
+     */
+    static int getId(String rawArgs) {
+        if (rawArgs.length() < PAYLOAD_OFFSET || !rawArgs.startsWith("[\"")) {
+            throw new IllegalArgumentException("Malformed command");
+        }
+        if (rawArgs.charAt(PAYLOAD_OFFSET - 1) != VERSION) {
+            throw new IllegalArgumentException("Unsupported command version");
+        }
+        int id = 0;
+
+        for (int i = ID_OFFSET; i < ID_OFFSET + ID_LENGTH; i++) {
+            int d = Character.digit(rawArgs.charAt(i), 16);
+
+            if (d < 0) {
+                throw new IllegalArgumentException("Malformed id");
+            }
+            id = id << 4 | d;
+        }
+        return id;
+    }
+
+    /**
+     * Get a fixed-length decimal number from the payload.
+     *
+     * @param rawArgs
+     * @param offset offset in the payload
+     * @param length number of digits
+     * @return number
+     */
+    static int getInt(String rawArgs, int offset, int length) {
+        int start = PAYLOAD_OFFSET + offset;
+        int n = 0;
+
+        if (rawArgs.length() < start + length) {
+            throw new IllegalArgumentException("Malformed number");
+        }
+        for (int i = start; i < start + length; i++) {
+            int d = Character.digit(rawArgs.charAt(i), 10);
+
+            if (d < 0) {
+                throw new IllegalArgumentException("Malformed number");
+            }
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    /**
+     * Get the rest of the payload as a string, undoing the JSON escapes.
+     *
+     * @param rawArgs
+     * @param offset offset in the payload
+     * @return string
+     */
+    static String getString(String rawArgs, int offset) {
+        int start = PAYLOAD_OFFSET + offset;
+        int len = rawArgs.length();
+        int i = start;
+
+        // Most payloads have nothing escaped, and are just cut out of the raw arguments.
+        for (; i < len; i++) {
+            char c = rawArgs.charAt(i);
+
+            if (c == '"') {
+                return rawArgs.substring(start, i);
+            }
+            if (c == '\\') {
+                break;
+            }
+        }
+        StringBuilder sb = new StringBuilder(len - start);
+
+        sb.append(rawArgs, start, i);
+        while (i < len) {
+            char c = rawArgs.charAt(i++);
+
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i >= len) {
+                break;
+            }
+            c = rawArgs.charAt(i++);
+            switch (c) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'u':
+                if (i + 4 > len) {
+                    throw new IllegalArgumentException("Malformed string");
+                }
+                int u = 0;
+
+                for (int j = 0; j < 4; j++) {
+                    int d = Character.digit(rawArgs.charAt(i++), 16);
+
+                    if (d < 0) {
+                        throw new IllegalArgumentException("Malformed string");
+                    }
+                    u = u << 4 | d;
+                }
+                sb.append((char) u);
+                break;
+            default:
+                sb.append(c);
+                break;
+            }
+        }
+        throw new IllegalArgumentException("Malformed string");
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.knowledgecode.cordova.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.jetty.websocket.WebSocket.Connection;
+
+/**
+ * Map connection ids to connections with open addressing.
+ * Lookups never lock, so the task lanes do not contend with each other or with the threads
+ * that open and close connections. Writers are serialized, and a removed entry leaves a tombstone
+ * until the table is rebuilt.
+ */
+class ConnectionMap {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    private volatile Table _table;
+    private volatile int _size;
+    private int _used;
+
+    /**
+     * Constructor
+     */
+    public ConnectionMap() {
+        _table = new Table(MIN_CAPACITY);
+    }
+
+    /**
+     * @param id
+     * @return the connection, or null if there is none
+     */
+    public Connection get(int id) {
+        Table table = _table;
+        int mask = table._keys.length() - 1;
+
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            int key = table._keys.get(i);
+
+            if (key == id) {
+                return table._values.get(i);
+            }
+            if (key == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @param id
+     * @param conn
+     */
+    public synchronized void put(int id, Connection conn) {
+        if (id == EMPTY) {
+            throw new IllegalArgumentException("Bad id: " + id);
+        }
+        Table table = _table;
+        int mask = table._keys.length() - 1;
+        int i = hash(id) & mask;
+
+        for (int key; (key = table._keys.get(i)) != EMPTY; i = (i + 1) & mask) {
+            if (key == id) {
+                if (table._values.getAndSet(i, conn) == null) {
+                    _size++;
+                }
+                return;
+            }
+        }
+        if ((_used + 1) * 4 > table._keys.length() * 3) {
+            rebuild(_size + 1);
+            put(id, conn);
+            return;
+        }
+        // The value must be visible before the key is.
+        table._values.set(i, conn);
+        table._keys.set(i, id);
+        _used++;
+        _size++;
+    }
+
+    /**
+     * @param id
+     * @return the removed connection, or null if there was none
+     */
+    public synchronized Connection remove(int id) {
+        Table table = _table;
+        int mask = table._keys.length() - 1;
+
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            int key = table._keys.get(i);
+
+            if (key == id) {
+                Connection conn = table._values.getAndSet(i, null);
+
+                if (conn != null) {
+                    _size--;
+                }
+                return conn;
+            }
+            if (key == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Remove all connections.
+     *
+     * @return the connections that were removed
+     */
+    public synchronized List<Connection> clear() {
+        List<Connection> values = values();
+
+        _table = new Table(MIN_CAPACITY);
+        _used = 0;
+        _size = 0;
+        return values;
+    }
+
+    /**
+     * @return a snapshot of the connections
+     */
+    public List<Connection> values() {
+        Table table = _table;
+        List<Connection> values = new ArrayList<Connection>(_size);
+
+        for (int i = 0; i < table._values.length(); i++) {
+            Connection conn = table._values.get(i);
+
+            if (conn != null) {
+                values.add(conn);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of connections
+     */
+    public int size() {
+        return _size;
+    }
+
+    private void rebuild(int size) {
+        Table table = _table;
+        int capacity = MIN_CAPACITY;
+
+        while (size * 2 > capacity) {
+            capacity <<= 1;
+        }
+        Table rebuilt = new Table(capacity);
+        int mask = capacity - 1;
+
+        _used = 0;
+        for (int i = 0; i < table._keys.length(); i++) {
+            Connection conn = table._values.get(i);
+
+            if (conn != null) {
+                int id = table._keys.get(i);
+                int j = hash(id) & mask;
+
+                while (rebuilt._keys.get(j) != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                rebuilt._values.set(j, conn);
+                rebuilt._keys.set(j, id);
+                _used++;
+            }
+        }
+        _table = rebuilt;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9e3779b9;
+
+        return h ^ (h >>> 16);
+    }
+
+    private static class Table {
+        private final AtomicIntegerArray _keys;
+        private final AtomicReferenceArray<Connection> _values;
+
+        Table(int capacity) {
+            _keys = new AtomicIntegerArray(capacity);
+            _values = new AtomicReferenceArray<Connection>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                _keys.set(i, EMPTY);
+            }
+        }
+    }
+}
@@ -18,8 +18,10 @@
  */
 package com.knowledgecode.cordova.websocket;
 
+import java.io.File;
 import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.cordova.CallbackContext;
@@ -36,7 +38,6 @@ import com.knowledgecode.cordova.websocket.TaskRunner.Task;
 import com.knowledgecode.cordova.websocket.WebSocketGenerator.OnCloseListener;
 import com.knowledgecode.cordova.websocket.WebSocketGenerator.OnOpenListener;
 
-import android.util.SparseArray;
 import android.webkit.CookieManager;
 
 /**
@@ -47,22 +48,42 @@ class ConnectionTask implements Task {
     private static final long MAX_CONNECT_TIME = 75000;
     private static final int MAX_TEXT_MESSAGE_SIZE = -1;
     private static final int MAX_BINARY_MESSAGE_SIZE = -1;
+    private static final long BATCH_DELAY = 0;
+    private static final long FILE_THRESHOLD = 0;
+    private static final long PING_INTERVAL = 0;
+    private static final int MAX_MISSED_PONGS = 2;
+    private static final long RECONNECT_DELAY = 1000;
+    private static final long MAX_RECONNECT_DELAY = 30000;
+    private static final int MAX_RECONNECT_ATTEMPTS = -1;
+    private static final int RECONNECT_QUEUE_SIZE = 64;
     private static final String WSS = "wss";
 
     private final WebSocketClientFactory _factory;
-    private final SparseArray<Connection> _map;
+    private final ConnectionMap _map;
+    private final ScheduledExecutorService _scheduler;
+    private final File _cacheDir;
 
     /**
      * Constructor
      *
      * @param factory
      * @param map
+     * @param scheduler
+     * @param cacheDir directory for binary messages received into files
      */
-    public ConnectionTask(WebSocketClientFactory factory, SparseArray<Connection> map) {
+    public ConnectionTask(WebSocketClientFactory factory, ConnectionMap map, ScheduledExecutorService scheduler, File cacheDir) {
         _factory = factory;
         _map = map;
+        _scheduler = scheduler;
+        _cacheDir = cacheDir;
+    }
 
-        if (!_factory.isRunning()) {
+    /**
+     * Start the factory on the first connect. A secure connect made before the SSL
+     * context is ready waits for it in the factory, not on the lane.
+     */
+    private void startFactory() {
+        if (!_factory.isStarted()) {
             try {
                 _factory.start();
             } catch (Exception e) {
@@ -97,6 +118,7 @@ class ConnectionTask implements Task {
     @Override
     public void execute(String rawArgs, CallbackContext ctx) {
         try {
+            startFactory();
             WebSocketClient client = _factory.newWebSocketClient();
 
             JSONArray args = new JSONArray(rawArgs);
@@ -111,6 +133,8 @@ class ConnectionTask implements Task {
 
             client.setMaxTextMessageSize(options.optInt("maxTextMessageSize", MAX_TEXT_MESSAGE_SIZE));
             client.setMaxBinaryMessageSize(options.optInt("maxBinaryMessageSize", MAX_BINARY_MESSAGE_SIZE));
+            client.setPingInterval(options.optLong("pingInterval", PING_INTERVAL));
+            client.setMaxMissedPongs(options.optInt("maxMissedPongs", MAX_MISSED_PONGS));
             if (protocol.length() > 0) {
                 client.setProtocol(protocol);
             }
@@ -128,6 +152,17 @@ class ConnectionTask implements Task {
 
             WebSocketGenerator gen = new WebSocketGenerator(id, ctx);
 
+            gen.setBinaryPluginResult(options.optBoolean("binaryPluginResult", false));
+            gen.setBatchDelay(options.optLong("batchDelay", BATCH_DELAY), _scheduler);
+            gen.setFileThreshold(options.optLong("fileThreshold", FILE_THRESHOLD), _cacheDir);
+            if (options.optBoolean("reconnect", false)) {
+                gen.setReconnectingConnection(new ReconnectingConnection(_factory, client, uri, gen, maxConnectTime, deflate,
+                        options.optLong("reconnectDelay", RECONNECT_DELAY),
+                        options.optLong("maxReconnectDelay", MAX_RECONNECT_DELAY),
+                        options.optInt("maxReconnectAttempts", MAX_RECONNECT_ATTEMPTS),
+                        options.optInt("reconnectQueueSize", RECONNECT_QUEUE_SIZE)));
+            }
+
             gen.setOnOpenListener(new OnOpenListener() {
                 @Override
                 public void onOpen(int id, Connection conn) {
@@ -137,12 +172,10 @@ class ConnectionTask implements Task {
             gen.setOnCloseListener(new OnCloseListener() {
                 @Override
                 public void onClose(int id) {
-                    if (_map.indexOfKey(id) >= 0) {
-                        _map.remove(id);
-                    }
+                    _map.remove(id);
                 }
             });
-            client.open(uri, gen, maxConnectTime, TimeUnit.MILLISECONDS);
+            client.connect(uri, gen, maxConnectTime, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             if (!ctx.isFinished()) {
                 PluginResult result = new PluginResult(Status.ERROR);
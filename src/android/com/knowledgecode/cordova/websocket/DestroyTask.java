@@ -24,15 +24,13 @@ import org.eclipse.jetty.websocket.WebSocketClientFactory;
 
 import com.knowledgecode.cordova.websocket.TaskRunner.Task;
 
-import android.util.SparseArray;
-
 /**
  * Stop WebSocket client.
  */
 class DestroyTask implements Task {
 
     private final WebSocketClientFactory _factory;
-    private final SparseArray<Connection> _map;
+    private final ConnectionMap _map;
 
     /**
      * Constructor
@@ -40,21 +38,18 @@ class DestroyTask implements Task {
      * @param factory
      * @param map
      */
-    public DestroyTask(WebSocketClientFactory factory, SparseArray<Connection> map) {
+    public DestroyTask(WebSocketClientFactory factory, ConnectionMap map) {
         _factory = factory;
         _map = map;
     }
 
     @Override
     public void execute(String rawArgs, CallbackContext ctx) {
-        for (int i = 0; i < _map.size(); i++) {
-            int key = _map.keyAt(i);
-
-            if (_map.get(key).isOpen()) {
-                _map.get(key).close(true);
+        for (Connection conn : _map.clear()) {
+            if (conn.isOpen()) {
+                conn.close(true);
             }
         }
-        _map.clear();
 
         if (_factory.isRunning()) {
             try {
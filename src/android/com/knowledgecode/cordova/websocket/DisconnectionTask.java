@@ -22,35 +22,31 @@ import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
 import org.apache.cordova.PluginResult.Status;
 import org.eclipse.jetty.websocket.WebSocket.Connection;
-import org.json.JSONArray;
 
 import com.knowledgecode.cordova.websocket.TaskRunner.Task;
 
-import android.util.SparseArray;
-
 /**
  * Close a connection.
  */
 class DisconnectionTask implements Task {
 
-    private final SparseArray<Connection> _map;
+    private final ConnectionMap _map;
 
     /**
      * Constructor
      *
      * @param map
      */
-    public DisconnectionTask(SparseArray<Connection> map) {
+    public DisconnectionTask(ConnectionMap map) {
         _map = map;
     }
 
     @Override
     public void execute(String rawArgs, CallbackContext ctx) {
         try {
-            JSONArray args = new JSONArray(rawArgs);
-            int id = Integer.parseInt(args.getString(0), 16);
-            int code = args.getInt(1);
-            String reason = args.getString(2);
+            int id = Command.getId(rawArgs);
+            int code = Command.getInt(rawArgs, 0, 4);
+            String reason = Command.getString(rawArgs, 4);
             Connection conn = _map.get(id);
 
             if (conn != null) {
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.knowledgecode.cordova.websocket;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.apache.cordova.PluginResult.Status;
+import org.eclipse.jetty.websocket.WebSocket.Connection;
+import org.eclipse.jetty.websocket.WebSocket.FrameConnection;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.knowledgecode.cordova.websocket.TaskRunner.Task;
+
+/**
+ * Send a file as one binary message, in fragments read from the file as they are sent.
+ * Each run of the task sends a single fragment and queues the rest of the file behind the
+ * other tasks of its lane, so other connections are not held up by the upload. A fragment
+ * is only sent once the previous ones have left the generator; until then the rest of the
+ * file is queued again after a short delay.
+ * The other messages of the connection wait until the file has been sent, since they
+ * cannot be sent between the fragments of a message.
+ */
+class FileSendingTask implements Task {
+
+    private static final int FRAGMENT_SIZE = 65536;
+    private static final long MAP_THRESHOLD = 1048576;
+    private static final long MAP_WINDOW = 8388608;
+    private static final long PROGRESS_INTERVAL = 100;
+    private static final long RETRY_DELAY = 10;
+    private static final int CLOSE_SERVER_ERROR = 1011;
+    private static final byte FLAG_FIN = 0x08;
+    private static final byte OP_CONTINUATION = 0x00;
+    private static final byte OP_BINARY = 0x02;
+    private static final String FILE = "file";
+
+    private final ConnectionMap _map;
+    private final TaskRunner _runner;
+    private final ScheduledExecutorService _scheduler;
+    private final Map<Integer, Upload> _uploads;
+
+    /**
+     * Constructor
+     *
+     * @param map
+     * @param runner
+     * @param scheduler
+     */
+    public FileSendingTask(ConnectionMap map, TaskRunner runner, ScheduledExecutorService scheduler) {
+        _map = map;
+        _runner = runner;
+        _scheduler = scheduler;
+        _uploads = new ConcurrentHashMap<Integer, Upload>();
+    }
+
+    /**
+     * Wrap a task that sends messages, so that it waits for the file being sent on its connection.
+     *
+     * @param task
+     * @return task
+     */
+    public Task guard(final Task task) {
+        return new Task() {
+            @Override
+            public void execute(String rawArgs, CallbackContext ctx) {
+                Upload upload = _uploads.get(getId(rawArgs));
+
+                if (upload != null) {
+                    upload.defer(this, rawArgs, ctx);
+                } else {
+                    task.execute(rawArgs, ctx);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the connection id, the 8-digit hex string that starts the arguments of every sending task.
+     *
+     * @param rawArgs
+     * @return id, or -1 if the arguments are malformed
+     */
+    private static int getId(String rawArgs) {
+        try {
+            return Integer.parseInt(rawArgs.substring(2, 10), 16);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static File toFile(String path) throws Exception {
+        if (path.startsWith(FILE + ":")) {
+            return new File(new URI(path));
+        }
+        return new File(path);
+    }
+
+    private static FrameConnection toFrameConnection(Connection conn) {
+        if (conn instanceof ReconnectingConnection) {
+            conn = ((ReconnectingConnection) conn).getDelegate();
+        }
+        return conn instanceof FrameConnection ? (FrameConnection) conn : null;
+    }
+
+    private static void sendProgress(CallbackContext ctx, long sent, long size, boolean done) throws JSONException {
+        JSONObject progress = new JSONObject();
+
+        progress.put("sent", sent);
+        progress.put("size", size);
+        progress.put("done", done);
+
+        PluginResult result = new PluginResult(Status.OK, progress);
+        result.setKeepCallback(!done);
+        ctx.sendPluginResult(result);
+    }
+
+    /**
+     * Read exactly length bytes of the file.
+     *
+     * @param channel
+     * @param fragment
+     * @param length
+     * @throws IOException
+     */
+    private static void read(FileChannel channel, byte[] fragment, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(fragment, 0, length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    @Override
+    public void execute(String rawArgs, CallbackContext ctx) {
+        int id = getId(rawArgs);
+        Upload upload = _uploads.get(id);
+
+        if (upload == null) {
+            start(id, rawArgs, ctx);
+        } else if (upload._ctx == ctx) {
+            upload.next();
+        } else {
+            upload.defer(this, rawArgs, ctx);
+        }
+    }
+
+    private void start(int id, String rawArgs, CallbackContext ctx) {
+        try {
+            JSONArray args = new JSONArray(rawArgs);
+            Connection owner = _map.get(id);
+            FrameConnection conn = toFrameConnection(owner);
+
+            if (conn == null) {
+                ctx.error("Not connected");
+                return;
+            }
+            JSONObject options = args.optJSONObject(2);
+            int fragmentSize = options == null ? 0 : options.optInt("fragmentSize", 0);
+            FileChannel channel = new FileInputStream(toFile(args.getString(1))).getChannel();
+            Upload upload;
+
+            try {
+                upload = new Upload(id, rawArgs, ctx, owner, conn, channel, fragmentSize > 0 ? fragmentSize : FRAGMENT_SIZE);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            _uploads.put(id, upload);
+            upload.next();
+        } catch (Exception e) {
+            if (!ctx.isFinished()) {
+                ctx.sendPluginResult(new PluginResult(Status.ERROR));
+            }
+        }
+    }
+
+    /**
+     * A file being sent, with the tasks of its connection that wait for it.
+     */
+    private class Upload implements Runnable {
+        private final int _id;
+        private final String _rawArgs;
+        private final CallbackContext _ctx;
+        private final Connection _owner;
+        private final FrameConnection _conn;
+        private final FileChannel _channel;
+        private final long _size;
+        private final byte[] _fragment;
+        private final List<Deferred> _deferred;
+        private MappedByteBuffer _mapped;
+        private long _sent;
+        private long _reported;
+
+        Upload(int id, String rawArgs, CallbackContext ctx, Connection owner, FrameConnection conn, FileChannel channel,
+                int fragmentSize) throws IOException {
+            _id = id;
+            _rawArgs = rawArgs;
+            _ctx = ctx;
+            _owner = owner;
+            _conn = conn;
+            _channel = channel;
+            _size = channel.size();
+            _fragment = new byte[(int) Math.max(1, Math.min(_size, fragmentSize))];
+            _deferred = new ArrayList<Deferred>();
+            _reported = System.currentTimeMillis();
+        }
+
+        void defer(Task task, String rawArgs, CallbackContext ctx) {
+            _deferred.add(new Deferred(task, rawArgs, ctx));
+        }
+
+        /**
+         * Queue the rest of the file on the lane of the connection.
+         */
+        @Override
+        public void run() {
+            _runner.addTaskQueue(_runner.obtain(WebSocket.SEND_FILE_TASK, _rawArgs, _ctx));
+        }
+
+        /**
+         * Send the next fragment, unless the previous ones are still being written.
+         */
+        void next() {
+            try {
+                if (toFrameConnection(_map.get(_id)) != _conn || !_conn.isOpen()) {
+                    throw new IOException("Not connected");
+                }
+                if (_conn.getMetrics().getBuffered() > 0) {
+                    _scheduler.schedule(this, RETRY_DELAY, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                int length = (int) Math.min(_fragment.length, _size - _sent);
+
+                // Large files are read through a window mapped on the file, moved along as it is sent
+                if (_size > MAP_THRESHOLD) {
+                    if (_mapped == null || !_mapped.hasRemaining()) {
+                        _mapped = _channel.map(FileChannel.MapMode.READ_ONLY, _sent, Math.min(MAP_WINDOW, _size - _sent));
+                    }
+                    length = Math.min(length, _mapped.remaining());
+                    _mapped.get(_fragment, 0, length);
+                } else {
+                    read(_channel, _fragment, length);
+                }
+                _conn.sendFrame(_sent + length >= _size ? FLAG_FIN : 0, _sent == 0 ? OP_BINARY : OP_CONTINUATION,
+                        _fragment, 0, length);
+                _sent += length;
+
+                if (_sent >= _size) {
+                    finish();
+                    sendProgress(_ctx, _sent, _size, true);
+                    runDeferred();
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (now - _reported >= PROGRESS_INTERVAL) {
+                    _reported = now;
+                    sendProgress(_ctx, _sent, _size, false);
+                }
+                run();
+            } catch (Exception e) {
+                // A message left unfinished would turn the next one into its continuation.
+                // The close goes through the reconnecting connection, if any, so that it does not reconnect.
+                if (_sent > 0 && _sent < _size && _conn.isOpen()) {
+                    (toFrameConnection(_owner) == _conn ? _owner : _conn).close(CLOSE_SERVER_ERROR, "Cannot send file: " + e);
+                }
+                finish();
+                if (!_ctx.isFinished()) {
+                    _ctx.sendPluginResult(new PluginResult(Status.ERROR));
+                }
+                runDeferred();
+            }
+        }
+
+        private void finish() {
+            _uploads.remove(_id);
+            try {
+                _channel.close();
+            } catch (IOException e) {
+            }
+        }
+
+        /**
+         * Run the tasks that waited for the file, in order.
+         * Another file among them waits in its turn for the tasks behind it.
+         */
+        private void runDeferred() {
+            for (Deferred deferred : _deferred) {
+                deferred._task.execute(deferred._rawArgs, deferred._ctx);
+            }
+            _deferred.clear();
+        }
+    }
+
+    private static class Deferred {
+        private final Task _task;
+        private final String _rawArgs;
+        private final CallbackContext _ctx;
+
+        Deferred(Task task, String rawArgs, CallbackContext ctx) {
+            _task = task;
+            _rawArgs = rawArgs;
+            _ctx = ctx;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.knowledgecode.cordova.websocket;
+
+import java.net.URI;
+
+import org.apache.cordova.CallbackContext;
+import org.eclipse.jetty.websocket.WebSocketClientFactory;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.knowledgecode.cordova.websocket.TaskRunner.Task;
+
+/**
+ * Open connections ahead of time, to be taken over by later connects.
+ */
+class PrewarmTask implements Task {
+
+    private static final long MAX_CONNECT_TIME = 75000;
+
+    private final WebSocketClientFactory _factory;
+
+    /**
+     * Constructor
+     *
+     * @param factory
+     */
+    public PrewarmTask(WebSocketClientFactory factory) {
+        _factory = factory;
+    }
+
+    @Override
+    public void execute(String rawArgs, CallbackContext ctx) {
+        try {
+            JSONArray args = new JSONArray(rawArgs);
+            JSONArray urls = args.getJSONArray(0);
+            JSONObject options = args.optJSONObject(1);
+            long maxConnectTime = options == null ? MAX_CONNECT_TIME : options.optLong("maxConnectTime", MAX_CONNECT_TIME);
+
+            if (!_factory.isStarted()) {
+                _factory.start();
+            }
+            for (int i = 0; i < urls.length(); i++) {
+                _factory.prewarm(new URI(urls.getString(i)), maxConnectTime);
+            }
+            ctx.success();
+        } catch (Exception e) {
+            if (!ctx.isFinished()) {
+                ctx.error(e.toString());
+            }
+        }
+    }
+}
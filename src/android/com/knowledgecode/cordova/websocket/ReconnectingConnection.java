@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.knowledgecode.cordova.websocket;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.thread.Timeout;
+import org.eclipse.jetty.websocket.PerMessageDeflateExtension;
+import org.eclipse.jetty.websocket.WebSocket;
+import org.eclipse.jetty.websocket.WebSocket.Connection;
+import org.eclipse.jetty.websocket.WebSocketClient;
+import org.eclipse.jetty.websocket.WebSocketClientFactory;
+import org.eclipse.jetty.websocket.WebSocketMetrics;
+
+/**
+ * A connection that reconnects by itself when it is dropped.
+ * It reuses the client, and so the cookies and options, of the first connection.
+ * Attempts are spaced by a jittered exponential backoff on the factory's timer,
+ * and messages sent in the meantime are queued, up to a limit, and sent on reopen.
+ */
+class ReconnectingConnection implements Connection {
+
+    private static final Random RANDOM = new Random();
+    private static final int MAX_SHIFT = 20;
+
+    private final WebSocketClientFactory _factory;
+    private final WebSocketClient _client;
+    private final URI _uri;
+    private final WebSocket _websocket;
+    private final long _maxConnectTime;
+    private final boolean _deflate;
+    private final long _delay;
+    private final long _maxDelay;
+    private final int _maxAttempts;
+    private final int _maxQueued;
+    private final List<Object> _queue = new ArrayList<Object>();
+    private final ReconnectTask _task = new ReconnectTask();
+    private Connection _delegate;
+    private WebSocketMetrics _metrics;
+    private int _attempts;
+    private boolean _opened;
+    private boolean _closed;
+
+    /**
+     * Constructor
+     *
+     * @param factory
+     * @param client configured client of the first connection
+     * @param uri
+     * @param websocket
+     * @param maxConnectTime
+     * @param deflate whether to offer permessage-deflate again
+     * @param delay base delay before the first attempt
+     * @param maxDelay
+     * @param maxAttempts -1 for unlimited
+     * @param maxQueued maximum number of messages kept while reconnecting
+     */
+    public ReconnectingConnection(WebSocketClientFactory factory, WebSocketClient client, URI uri,
+            WebSocket websocket, long maxConnectTime, boolean deflate,
+            long delay, long maxDelay, int maxAttempts, int maxQueued) {
+        _factory = factory;
+        _client = client;
+        _uri = uri;
+        _websocket = websocket;
+        _maxConnectTime = maxConnectTime;
+        _deflate = deflate;
+        _delay = Math.max(1, delay);
+        _maxDelay = Math.max(_delay, maxDelay);
+        _maxAttempts = maxAttempts;
+        _maxQueued = maxQueued;
+    }
+
+    /**
+     * Use a newly opened connection, sending what was queued while reconnecting.
+     *
+     * @param conn
+     * @return this
+     */
+    public synchronized Connection attach(Connection conn) {
+        if (_closed) {
+            // Closed while the attempt was in progress
+            conn.close();
+            return this;
+        }
+        _opened = true;
+        _delegate = conn;
+        _metrics = conn.getMetrics();
+        _attempts = 0;
+        if (!_queue.isEmpty()) {
+            try {
+                conn.sendMessages(_queue);
+            } catch (IOException e) {
+                // The connection is dropped again, and the messages with it
+            }
+            _queue.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Called when the connection, or an attempt to reconnect, has closed.
+     * A first connection that fails is not retried.
+     *
+     * @param code
+     * @param remote whether the close came from the peer
+     * @return the delay before the next attempt, or -1 if it does not reconnect
+     */
+    public synchronized long detach(int code, boolean remote) {
+        _delegate = null;
+        if (_closed || !_opened || !isTransient(code, remote) || (_maxAttempts >= 0 && _attempts >= _maxAttempts)) {
+            _closed = true;
+            _queue.clear();
+            return -1;
+        }
+        long cap = Math.min(_maxDelay, _delay << Math.min(_attempts, MAX_SHIFT));
+        long delay = cap / 2 + (long) (RANDOM.nextDouble() * (cap / 2 + 1));
+
+        _attempts++;
+        _factory.getSelectorManager().scheduleTimeout(_task, delay);
+        return delay;
+    }
+
+    /**
+     * Whether the close code is worth reconnecting for.
+     * The server refusing or rejecting the connection is not, and neither is
+     * a close made on this side, such as the plugin's own 1011 on an error.
+     *
+     * @param code
+     * @param remote whether the close came from the peer
+     * @return
+     */
+    private static boolean isTransient(int code, boolean remote) {
+        switch (code) {
+        case 1006: // dropped
+        case 3008: // keepalive timeout
+            return true;
+        case 1001: // going away
+        case 1011: // server error
+        case 1012: // service restart
+        case 1013: // try again later
+        case 1014: // bad gateway
+            return remote;
+        default:
+            return false;
+        }
+    }
+
+    private void reconnect() {
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            // An extension instance is bound to a single connection
+            _client.getExtensions().clear();
+            if (_deflate) {
+                _client.getExtensions().add(new PerMessageDeflateExtension());
+            }
+        }
+        try {
+            _client.connect(_uri, _websocket, _maxConnectTime, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            _websocket.onClose(1006, e.getMessage());
+        }
+    }
+
+    private void queue(Object message) throws IOException {
+        if (_closed) {
+            throw new IOException("closed");
+        }
+        if (_queue.size() >= _maxQueued) {
+            throw new IOException("Reconnect queue full");
+        }
+        _queue.add(message);
+    }
+
+    /**
+     * @return the connection currently in use, or null while reconnecting
+     */
+    public synchronized Connection getDelegate() {
+        return _delegate;
+    }
+
+    @Override
+    public synchronized String getProtocol() {
+        return _delegate == null ? null : _delegate.getProtocol();
+    }
+
+    @Override
+    public synchronized String getExtensions() {
+        return _delegate == null ? null : _delegate.getExtensions();
+    }
+
+    @Override
+    public synchronized void sendMessage(String data) throws IOException {
+        if (_delegate != null) {
+            _delegate.sendMessage(data);
+        } else {
+            queue(data);
+        }
+    }
+
+    @Override
+    public synchronized void sendMessage(byte[] data, int offset, int length) throws IOException {
+        if (_delegate != null) {
+            _delegate.sendMessage(data, offset, length);
+        } else {
+            queue(Arrays.copyOfRange(data, offset, offset + length));
+        }
+    }
+
+    @Override
+    public synchronized void sendMessages(List<?> messages) throws IOException {
+        if (_delegate != null) {
+            _delegate.sendMessages(messages);
+        } else {
+            for (Object message : messages) {
+                queue(message);
+            }
+        }
+    }
+
+    @Override
+    public synchronized WebSocketMetrics getMetrics() {
+        return _metrics;
+    }
+
+    @Override
+    public void close() {
+        close(0, null);
+    }
+
+    @Override
+    public void close(boolean silent) {
+        Connection delegate;
+
+        synchronized (this) {
+            _closed = true;
+            delegate = _delegate;
+        }
+        if (delegate != null) {
+            delegate.close(silent);
+        } else {
+            cancel(1006, "closed");
+        }
+    }
+
+    @Override
+    public void close(int closeCode, String message) {
+        Connection delegate;
+
+        synchronized (this) {
+            _closed = true;
+            delegate = _delegate;
+        }
+        if (delegate == null) {
+            cancel(closeCode > 0 ? closeCode : 1005, message);
+        } else if (closeCode > 0) {
+            delegate.close(closeCode, message);
+        } else {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Stop reconnecting, and report the close that did not happen on a connection.
+     */
+    private void cancel(int code, String message) {
+        _task.cancel();
+        synchronized (this) {
+            _queue.clear();
+        }
+        _websocket.onClose(code, message);
+    }
+
+    /**
+     * @return true until it is closed for good, so that it is closed on reset
+     */
+    @Override
+    public synchronized boolean isOpen() {
+        return !_closed;
+    }
+
+    @Override
+    public synchronized void setMaxIdleTime(int ms) {
+        if (_delegate != null) {
+            _delegate.setMaxIdleTime(ms);
+        }
+    }
+
+    @Override
+    public synchronized void setMaxTextMessageSize(int size) {
+        _client.setMaxTextMessageSize(size);
+        if (_delegate != null) {
+            _delegate.setMaxTextMessageSize(size);
+        }
+    }
+
+    @Override
+    public synchronized void setMaxBinaryMessageSize(int size) {
+        _client.setMaxBinaryMessageSize(size);
+        if (_delegate != null) {
+            _delegate.setMaxBinaryMessageSize(size);
+        }
+    }
+
+    @Override
+    public synchronized int getMaxIdleTime() {
+        return _delegate == null ? _client.getMaxIdleTime() : _delegate.getMaxIdleTime();
+    }
+
+    @Override
+    public int getMaxTextMessageSize() {
+        return _client.getMaxTextMessageSize();
+    }
+
+    @Override
+    public int getMaxBinaryMessageSize() {
+        return _client.getMaxBinaryMessageSize();
+    }
+
+    private class ReconnectTask extends Timeout.Task implements Runnable {
+        @Override
+        public void run() {
+            reconnect();
+        }
+    }
+}
@@ -23,33 +23,28 @@ import org.eclipse.jetty.websocket.WebSocket.Connection;
 
 import com.knowledgecode.cordova.websocket.TaskRunner.Task;
 
-import android.util.SparseArray;
-
 /**
  * Close all connections.
  */
 class ResetTask implements Task {
 
-    private final SparseArray<Connection> _map;
+    private final ConnectionMap _map;
 
     /**
      * Constructor
      *
      * @param map
      */
-    public ResetTask(SparseArray<Connection> map) {
+    public ResetTask(ConnectionMap map) {
         _map = map;
     }
 
     @Override
     public void execute(String rawArgs, CallbackContext ctx) {
-        for (int i = 0; i < _map.size(); i++) {
-            int key = _map.keyAt(i);
-
-            if (_map.get(key).isOpen()) {
-                _map.get(key).close(true);
+        for (Connection conn : _map.clear()) {
+            if (conn.isOpen()) {
+                conn.close(true);
             }
         }
-        _map.clear();
     }
 }
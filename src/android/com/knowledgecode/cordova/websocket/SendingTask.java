@@ -22,49 +22,38 @@ import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
 import org.apache.cordova.PluginResult.Status;
 import org.eclipse.jetty.websocket.WebSocket.Connection;
-import org.json.JSONArray;
 
 import com.knowledgecode.cordova.websocket.TaskRunner.Task;
 
-import android.util.Base64;
-import android.util.SparseArray;
-
 /**
- * Send text/binary data.
+ * Send text data.
  */
 class SendingTask implements Task {
 
-    private final SparseArray<Connection> _map;
+    private final ConnectionMap _map;
 
     /**
      * Constructor
      *
      * @param map
      */
-    public SendingTask(SparseArray<Connection> map) {
+    public SendingTask(ConnectionMap map) {
         _map = map;
     }
 
     @Override
     public void execute(String rawArgs, CallbackContext ctx) {
         try {
-            String args = new JSONArray(rawArgs).getString(0);
-            Connection conn = _map.get(Integer.parseInt(args.substring(0, 8), 16));
+            int id = Command.getId(rawArgs);
+            Connection conn = _map.get(id);
 
             if (conn != null) {
-                if (args.charAt(8) == '1') {
-                    byte[] binary = Base64.decode(args.substring(args.indexOf(',') + 1), Base64.NO_WRAP);
-                    conn.sendMessage(binary, 0, binary.length);
-                } else {
-                    conn.sendMessage(args.substring(9));
-                }
-            } else {
+                conn.sendMessage(Command.getString(rawArgs, 0));
             }
+            ctx.success();
         } catch (Exception e) {
             if (!ctx.isFinished()) {
-                PluginResult result = new PluginResult(Status.ERROR);
-                result.setKeepCallback(true);
-                ctx.sendPluginResult(result);
+                ctx.sendPluginResult(new PluginResult(Status.ERROR));
             }
         }
     }
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.knowledgecode.cordova.websocket;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.apache.cordova.PluginResult.Status;
+import org.eclipse.jetty.io.BufferPool;
+import org.eclipse.jetty.io.nio.SelectorManager;
+import org.eclipse.jetty.io.nio.SelectorManager.SelectSet;
+import org.eclipse.jetty.websocket.WebSocket.Connection;
+import org.eclipse.jetty.websocket.WebSocketClientFactory;
+import org.eclipse.jetty.websocket.WebSocketMetrics;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.knowledgecode.cordova.websocket.TaskRunner.Task;
+
+/**
+ * Report metrics of a connection, or of the whole plugin if no id is given.
+ */
+class StatsTask implements Task {
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final WebSocketClientFactory _factory;
+    private final ConnectionMap _map;
+    private final TaskRunner _runner;
+
+    /**
+     * Constructor
+     *
+     * @param factory
+     * @param map
+     * @param runner
+     */
+    public StatsTask(WebSocketClientFactory factory, ConnectionMap map, TaskRunner runner) {
+        _factory = factory;
+        _map = map;
+        _runner = runner;
+    }
+
+    private static JSONArray toJSON(long[] values) {
+        JSONArray json = new JSONArray();
+
+        for (long value : values) {
+            json.put(value);
+        }
+        return json;
+    }
+
+    private static JSONObject toJSON(SelectSet set) throws JSONException {
+        JSONObject json = new JSONObject();
+
+        json.put("keys", set.getKeys());
+        json.put("endPoints", set.getEndPoints());
+        json.put("selects", set.getSelects());
+        json.put("busySelects", set.getBusySelects());
+        json.put("wakeups", set.getWakeups());
+        return json;
+    }
+
+    private static JSONObject toJSON(BufferPool pool) throws JSONException {
+        JSONObject json = new JSONObject();
+
+        json.put("hits", pool.getHits());
+        json.put("misses", pool.getMisses());
+        json.put("allocatedBytes", pool.getAllocatedBytes());
+        json.put("directAllocations", pool.getDirectAllocations());
+        json.put("discards", pool.getDiscards());
+        json.put("trimmed", pool.getTrimmed());
+        json.put("memory", pool.getMemory());
+        return json;
+    }
+
+    private static JSONObject toJSON(WebSocketMetrics metrics) throws JSONException {
+        JSONObject json = new JSONObject();
+
+        json.put("bytesIn", metrics.getBytesIn());
+        json.put("bytesOut", metrics.getBytesOut());
+        json.put("framesIn", metrics.getFramesIn());
+        json.put("framesOut", metrics.getFramesOut());
+        json.put("messagesIn", metrics.getMessagesIn());
+        json.put("messagesOut", metrics.getMessagesOut());
+        json.put("deflateIn", metrics.getDeflateIn());
+        json.put("deflateOut", metrics.getDeflateOut());
+        json.put("inflateIn", metrics.getInflateIn());
+        json.put("inflateOut", metrics.getInflateOut());
+        json.put("fakeFragments", metrics.getFakeFragments());
+        json.put("buffered", metrics.getBuffered());
+        json.put("rtt", metrics.getLastRoundTrip());
+        json.put("rttHistogram", toJSON(metrics.getRoundTrips()));
+        return json;
+    }
+
+    @Override
+    public void execute(String rawArgs, CallbackContext ctx) {
+        try {
+            JSONArray args = new JSONArray(rawArgs);
+            JSONObject stats;
+
+            if (args.length() > 0) {
+                Connection conn = _map.get(Integer.parseInt(args.getString(0), 16));
+
+                if (conn == null) {
+                    ctx.error("Not connected");
+                    return;
+                }
+                stats = toJSON(conn.getMetrics());
+            } else {
+                JSONArray depths = new JSONArray();
+                JSONArray selectors = new JSONArray();
+                SelectorManager manager = _factory.getSelectorManager();
+
+                for (int i = 0; i < _runner.getLanes(); i++) {
+                    depths.put(_runner.getQueueDepth(i));
+                }
+                for (int i = 0; i < manager.getSelectSets(); i++) {
+                    SelectSet set = manager.getSelectSet(i);
+
+                    if (set != null) {
+                        selectors.put(toJSON(set));
+                    }
+                }
+                stats = toJSON(_factory.getMetrics());
+                stats.put("connections", _map.size());
+                stats.put("connecting", _factory.getConnecting());
+                stats.put("warmConnections", _factory.getWarmConnections());
+                stats.put("selectorWakeups", _factory.getSelectorWakeups());
+                stats.put("selectors", selectors);
+                stats.put("buffers", toJSON(_factory.getBufferPool()));
+                stats.put("tlsResumed", _factory.getSslContextFactory().getResumedSessions());
+                stats.put("tlsFullHandshakes", _factory.getSslContextFactory().getNewSessions());
+                stats.put("tlsHandshakeTime", _factory.getSslContextFactory().getHandshakeNanos() / NANOS_PER_MILLI);
+                stats.put("tlsTaskTime", _factory.getSslContextFactory().getTaskNanos() / NANOS_PER_MILLI);
+                stats.put("queueDepths", depths);
+                stats.put("queueWaits", _runner.getWaitCount());
+                stats.put("queueWaitTime", _runner.getWaitTime() / NANOS_PER_MILLI);
+                stats.put("maxQueueWaitTime", _runner.getMaxWaitTime() / NANOS_PER_MILLI);
+            }
+            ctx.success(stats);
+        } catch (Exception e) {
+            if (!ctx.isFinished()) {
+                ctx.sendPluginResult(new PluginResult(Status.ERROR));
+            }
+        }
+    }
+}
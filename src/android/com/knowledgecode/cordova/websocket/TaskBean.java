@@ -1,22 +1,38 @@
 package com.knowledgecode.cordova.websocket;
 
+import java.util.concurrent.CyclicBarrier;
+
 import org.apache.cordova.CallbackContext;
 
 class TaskBean {
-    private final String _action;
-    private final String _rawArgs;
-    private final CallbackContext _ctx;
+    private String _action;
+    private String _rawArgs;
+    private CallbackContext _ctx;
+    private CyclicBarrier _barrier;
+    TaskBean _next;
+    long _enqueued;
+
+    TaskBean() {
+    }
 
     public TaskBean(final String action) {
-        _action = action;
-        _rawArgs = "[]";
-        _ctx = null;
+        this(action, "[]", null);
     }
 
     public TaskBean(final String action, final String rawArgs, final CallbackContext ctx) {
+        set(action, rawArgs, ctx, null);
+    }
+
+    public TaskBean(final String action, final CyclicBarrier barrier) {
+        set(action, "[]", null, barrier);
+    }
+
+    void set(final String action, final String rawArgs, final CallbackContext ctx, final CyclicBarrier barrier) {
         _action = action;
         _rawArgs = rawArgs;
         _ctx = ctx;
+        _barrier = barrier;
+        _next = null;
     }
 
     public String getAction() {
@@ -30,4 +46,8 @@ class TaskBean {
     public CallbackContext getCtx() {
         return _ctx;
     }
+
+    public CyclicBarrier getBarrier() {
+        return _barrier;
+    }
 }
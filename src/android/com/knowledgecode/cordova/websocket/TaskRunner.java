@@ -20,56 +20,270 @@ package com.knowledgecode.cordova.websocket;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.cordova.CallbackContext;
+import org.eclipse.jetty.util.StripedCounter;
 
-class TaskRunner implements Runnable {
+/**
+ * Run tasks on a fixed number of lanes.
+ * Tasks for the same connection always go to the same lane, so they run in order,
+ * while tasks for other connections run in parallel on the other lanes.
+ */
+class TaskRunner {
 
     interface Task {
         public void execute(String rawArgs, CallbackContext ctx);
     }
 
-    private BlockingQueue<TaskBean> _queue;
-    private Map<String, Task> _map;
+    private static final int MAX_POOL_SIZE = 64;
+
+    private final Lane[] _lanes;
+    private final Map<String, Task> _map;
+    private final TaskBean[] _pool;
+    private int _poolSize;
+    private final StripedCounter _waitCount = new StripedCounter();
+    private final StripedCounter _waitTime = new StripedCounter();
+    private final AtomicLong _maxWaitTime = new AtomicLong();
 
-    public TaskRunner() {
-        _queue = new LinkedBlockingQueue<TaskBean>();
+    /**
+     * Constructor
+     *
+     * @param lanes
+     */
+    public TaskRunner(int lanes) {
+        _lanes = new Lane[Math.max(1, lanes)];
+        for (int i = 0; i < _lanes.length; i++) {
+            _lanes[i] = new Lane();
+        }
         _map = new HashMap<String, Task>();
+        _pool = new TaskBean[MAX_POOL_SIZE];
     }
 
     public void setTask(String action, Task task) {
         _map.put(action, task);
     }
 
+    /**
+     * Start a worker for each lane.
+     *
+     * @param executor
+     */
+    public void start(Executor executor) {
+        for (Lane lane : _lanes) {
+            executor.execute(lane);
+        }
+    }
+
+    /**
+     * Get a task from the pool, or a new one if the pool is empty.
+     * It goes back to the pool once it has run.
+     *
+     * @param action
+     * @param rawArgs
+     * @param ctx
+     * @return task
+     */
+    public TaskBean obtain(String action, String rawArgs, CallbackContext ctx) {
+        TaskBean bean = null;
+
+        synchronized (_pool) {
+            if (_poolSize > 0) {
+                bean = _pool[--_poolSize];
+                _pool[_poolSize] = null;
+            }
+        }
+        if (bean == null) {
+            bean = new TaskBean();
+        }
+        bean.set(action, rawArgs, ctx, null);
+        return bean;
+    }
+
+    private void recycle(TaskBean bean) {
+        bean.set(null, null, null, null);
+        synchronized (_pool) {
+            if (_poolSize < _pool.length) {
+                _pool[_poolSize++] = bean;
+            }
+        }
+    }
+
     public boolean addTaskQueue(TaskBean bean) {
-        try {
-            _queue.put(bean);
-        } catch (InterruptedException e) {
-            return false;
+        String action = bean.getAction();
+
+        if (WebSocket.RESET_TASK.equals(action) || WebSocket.DESTROY_TASK.equals(action)) {
+            // Every lane reaches the barrier before the task runs, and none continues until it has run.
+            final Task task = _map.get(action);
+            final TaskBean b = bean;
+            CyclicBarrier barrier = new CyclicBarrier(_lanes.length, new Runnable() {
+                @Override
+                public void run() {
+                    task.execute(b.getRawArgs(), b.getCtx());
+                }
+            });
+            for (Lane lane : _lanes) {
+                lane.put(new TaskBean(action, barrier));
+            }
+        } else {
+            _lanes[getLane(bean.getRawArgs())].put(bean);
         }
         return true;
     }
 
-    @Override
-    public void run() {
-        while (true) {
-            TaskBean task;
+    /**
+     * @return the number of lanes
+     */
+    public int getLanes() {
+        return _lanes.length;
+    }
+
+    /**
+     * @param lane
+     * @return the number of tasks waiting on the lane
+     */
+    public int getQueueDepth(int lane) {
+        return _lanes[lane].size();
+    }
+
+    /**
+     * @return the number of tasks that have been taken from the lanes
+     */
+    public long getWaitCount() {
+        return _waitCount.get();
+    }
+
+    /**
+     * @return the total time tasks have waited in the lanes, in nanoseconds
+     */
+    public long getWaitTime() {
+        return _waitTime.get();
+    }
+
+    /**
+     * @return the longest time a task has waited in a lane, in nanoseconds
+     */
+    public long getMaxWaitTime() {
+        return _maxWaitTime.get();
+    }
+
+    private void onTaken(TaskBean bean) {
+        long wait = System.nanoTime() - bean._enqueued;
+        long max = _maxWaitTime.get();
 
-            try {
-                task = _queue.take();
-            } catch (InterruptedException e) {
+        _waitCount.increment();
+        _waitTime.add(wait);
+        while (wait > max && !_maxWaitTime.compareAndSet(max, wait)) {
+            max = _maxWaitTime.get();
+        }
+    }
+
+    /**
+     * Pick the lane from the connection id, which is the first argument of every task.
+     * It is a decimal number for "create" and an 8-digit hex string otherwise.
+     *
+     * @param rawArgs
+     * @return lane index
+     */
+    private int getLane(String rawArgs) {
+        int i = rawArgs.indexOf('[') + 1;
+        int len = rawArgs.length();
+        int radix = 10;
+        int id = 0;
+
+        if (i < len && rawArgs.charAt(i) == '"') {
+            radix = 16;
+            len = Math.min(len, ++i + 8);
+        }
+        for (; i < len; i++) {
+            int d = Character.digit(rawArgs.charAt(i), radix);
+
+            if (d < 0) {
                 break;
             }
-            String action = task.getAction();
+            id = id * radix + d;
+        }
+        return (id & 0x7fffffff) % _lanes.length;
+    }
 
-            _map.get(action).execute(task.getRawArgs(), task.getCtx());
-            if (WebSocket.DESTROY_TASK.equals(action)) {
-                break;
+    /**
+     * A lane queues its tasks through their own links, so queueing does not allocate.
+     */
+    private class Lane implements Runnable {
+        private TaskBean _head;
+        private TaskBean _tail;
+        private int _size;
+
+        synchronized void put(TaskBean bean) {
+            bean._enqueued = System.nanoTime();
+            if (_tail == null) {
+                _head = bean;
+            } else {
+                _tail._next = bean;
+            }
+            _tail = bean;
+            _size++;
+            notify();
+        }
+
+        synchronized TaskBean take() throws InterruptedException {
+            while (_head == null) {
+                wait();
+            }
+            TaskBean bean = _head;
+
+            _head = bean._next;
+            if (_head == null) {
+                _tail = null;
+            }
+            bean._next = null;
+            _size--;
+            return bean;
+        }
+
+        synchronized int size() {
+            return _size;
+        }
+
+        synchronized void clear() {
+            _head = null;
+            _tail = null;
+            _size = 0;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                TaskBean task;
+
+                try {
+                    task = take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                onTaken(task);
+                String action = task.getAction();
+
+                if (task.getBarrier() != null) {
+                    try {
+                        task.getBarrier().await();
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (BrokenBarrierException e) {
+                        break;
+                    }
+                } else {
+                    _map.get(action).execute(task.getRawArgs(), task.getCtx());
+                }
+                recycle(task);
+                if (WebSocket.DESTROY_TASK.equals(action)) {
+                    break;
+                }
             }
+            clear();
         }
-        _queue.clear();
-        _map.clear();
     }
 }
@@ -18,8 +18,10 @@
  */
 package com.knowledgecode.cordova.websocket;
 
+import java.io.File;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.cordova.CordovaPreferences;
@@ -27,12 +29,12 @@ import org.apache.cordova.CordovaWebView;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
+import org.eclipse.jetty.io.BufferPool;
 import org.eclipse.jetty.util.log.Log;
-import org.eclipse.jetty.websocket.WebSocket.Connection;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.websocket.HostResolver;
 import org.eclipse.jetty.websocket.WebSocketClientFactory;
 
-import android.util.SparseArray;
-
 /**
  * Cordova WebSocket Plugin for Android
  * This plugin is using Jetty under the terms of the Apache License v2.0.
@@ -44,34 +46,69 @@ public class WebSocket extends CordovaPlugin {
 
     static final String CREATE_TASK = "create";
     static final String SEND_TASK = "send";
+    static final String SEND_BINARY_TASK = "sendBinary";
+    static final String SEND_BATCH_TASK = "sendBatch";
+    static final String SEND_FILE_TASK = "sendFile";
     static final String CLOSE_TASK = "close";
+    static final String STATS_TASK = "stats";
+    static final String PREWARM_TASK = "prewarm";
     static final String RESET_TASK = "reset";
     static final String DESTROY_TASK = "destroy";
 
+    private static final int MAX_CONNECTING = -1;
+    private static final int MAX_TASK_LANES = 4;
+    private static final int MAX_SELECT_SETS = 4;
+    private static final String CACHE_DIR = "websocket";
+
     private WebSocketClientFactory _factory;
-    private SparseArray<Connection> _conn;
+    private ConnectionMap _conn;
     private ExecutorService _executor;
+    private ScheduledExecutorService _scheduler;
     private TaskRunner _runner;
 
     @Override
     public void initialize(CordovaInterface cordova, final CordovaWebView webView) {
         super.initialize(cordova, webView);
         _factory = new WebSocketClientFactory();
-        _conn = new SparseArray<Connection>();
-        _executor = Executors.newSingleThreadExecutor();
-        _runner = new TaskRunner();
-        _runner.setTask(CREATE_TASK, new ConnectionTask(_factory, _conn));
-        _runner.setTask(SEND_TASK, new SendingTask(_conn));
+        _factory.setMaxConnecting(this.preferences.getInteger("WebSocketMaxConnecting", MAX_CONNECTING));
+        _factory.getSelectorManager().setSelectSets(this.preferences.getInteger("WebSocketSelectors",
+                Math.min(Runtime.getRuntime().availableProcessors(), MAX_SELECT_SETS)));
+        _factory.setMaxWarmConnections(this.preferences.getInteger("WebSocketMaxWarmConnections", _factory.getMaxWarmConnections()));
+        _factory.setWarmIdleTime(this.preferences.getInteger("WebSocketWarmIdleTime", (int) _factory.getWarmIdleTime()));
+        BufferPool pool = _factory.getBufferPool();
+        pool.setMaxMemory(this.preferences.getInteger("WebSocketBufferPoolMemory", (int) pool.getMaxMemory()));
+        pool.setIdleTime(this.preferences.getInteger("WebSocketBufferPoolIdleTime", (int) pool.getIdleTime()));
+        HostResolver resolver = _factory.getHostResolver();
+        resolver.setTtl(this.preferences.getInteger("WebSocketDnsTtl", (int) resolver.getTtl()));
+        resolver.setNegativeTtl(this.preferences.getInteger("WebSocketDnsNegativeTtl", (int) resolver.getNegativeTtl()));
+        SslContextFactory ssl = _factory.getSslContextFactory();
+        ssl.setSslSessionCacheSize(this.preferences.getInteger("WebSocketTlsSessionCacheSize", ssl.getSslSessionCacheSize()));
+        ssl.setSslSessionTimeout(this.preferences.getInteger("WebSocketTlsSessionTimeout", ssl.getSslSessionTimeout()));
+        _conn = new ConnectionMap();
+        int lanes = this.preferences.getInteger("WebSocketTaskLanes",
+                Math.min(Runtime.getRuntime().availableProcessors(), MAX_TASK_LANES));
+        _runner = new TaskRunner(lanes);
+        _executor = Executors.newFixedThreadPool(_runner.getLanes());
+        _scheduler = Executors.newSingleThreadScheduledExecutor();
+        _runner.setTask(CREATE_TASK, new ConnectionTask(_factory, _conn, _scheduler,
+                new File(cordova.getActivity().getCacheDir(), CACHE_DIR)));
+        FileSendingTask files = new FileSendingTask(_conn, _runner, _scheduler);
+        _runner.setTask(SEND_TASK, files.guard(new SendingTask(_conn)));
+        _runner.setTask(SEND_BINARY_TASK, files.guard(new BinarySendingTask(_conn)));
+        _runner.setTask(SEND_BATCH_TASK, files.guard(new BatchSendingTask(_conn)));
+        _runner.setTask(SEND_FILE_TASK, files);
         _runner.setTask(CLOSE_TASK, new DisconnectionTask(_conn));
+        _runner.setTask(STATS_TASK, new StatsTask(_factory, _conn, _runner));
+        _runner.setTask(PREWARM_TASK, new PrewarmTask(_factory));
         _runner.setTask(RESET_TASK, new ResetTask(_conn));
         _runner.setTask(DESTROY_TASK, new DestroyTask(_factory, _conn));
-        _executor.execute(_runner);
+        _runner.start(_executor);
         Log.setLogLevel(getLogLevel(this.preferences));
     }
 
     @Override
     public boolean execute(String action, String rawArgs, CallbackContext ctx) {
-        return _runner.addTaskQueue(new TaskBean(action, rawArgs, ctx));
+        return _runner.addTaskQueue(_runner.obtain(action, rawArgs, ctx));
     };
 
     @Override
@@ -88,6 +125,7 @@ public class WebSocket extends CordovaPlugin {
             _executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
         }
+        _scheduler.shutdown();
         super.onDestroy();
     }
 
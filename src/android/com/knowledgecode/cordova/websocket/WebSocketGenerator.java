@@ -18,17 +18,32 @@
  */
 package com.knowledgecode.cordova.websocket;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
 import org.apache.cordova.PluginResult.Status;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import android.text.TextUtils;
 
 class WebSocketGenerator implements
     org.eclipse.jetty.websocket.WebSocket.OnTextMessage,
-    org.eclipse.jetty.websocket.WebSocket.OnBinaryMessage {
+    org.eclipse.jetty.websocket.WebSocket.OnBinaryMessage,
+    org.eclipse.jetty.websocket.WebSocket.OnMessageStream {
 
     interface OnOpenListener {
         public void onOpen(int id, Connection conn);
@@ -39,9 +54,38 @@ class WebSocketGenerator implements
     }
 
     private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int MAX_BATCH_COUNT = 256;
+    private static final int MAX_BATCH_LENGTH = 65536;
+    private static final int CHUNK_SIZE = 65536;
+    private static final byte OP_BINARY = 0x02;
+    private static final int CLOSE_SERVER_ERROR = 1011;
+    private static final String DIGEST = "SHA-256";
 
     private final int _id;
     private final CallbackContext _ctx;
+    private boolean _binaryPluginResult;
+    private ScheduledExecutorService _scheduler;
+    private long _batchDelay;
+    private final StringBuilder _batch = new StringBuilder();
+    private int _batchCount;
+    private ScheduledFuture<?> _batchFlush;
+    private final Runnable _flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushBatch();
+        }
+    };
+    private byte[] _chunk;
+    private int _chunkLength;
+    private boolean _streaming;
+    private long _fileThreshold;
+    private File _cacheDir;
+    private File _file;
+    private FileChannel _channel;
+    private MessageDigest _digest;
+    private boolean _discarding;
+    private Connection _conn;
+    private ReconnectingConnection _reconnecting;
     private OnOpenListener _openListener;
     private OnCloseListener _closeListener;
 
@@ -86,9 +130,52 @@ class WebSocketGenerator implements
         _closeListener = l;
     }
 
+    /**
+     * Deliver binary messages as ArrayBuffer results instead of strings.
+     *
+     * @param binaryPluginResult
+     */
+    public void setBinaryPluginResult(boolean binaryPluginResult) {
+        _binaryPluginResult = binaryPluginResult;
+    }
+
+    /**
+     * Coalesce received messages into one result per batch.
+     * A batch is sent when it is delayMs old, or earlier if it gets too large.
+     *
+     * @param delayMs 0 to send each message immediately
+     * @param scheduler
+     */
+    public void setBatchDelay(long delayMs, ScheduledExecutorService scheduler) {
+        _batchDelay = delayMs;
+        _scheduler = scheduler;
+    }
+
+    /**
+     * Write binary messages larger than the threshold into files instead of passing them to JavaScript.
+     * Smaller ones are held in memory until they are complete.
+     *
+     * @param threshold 0 to never write messages into files
+     * @param cacheDir
+     */
+    public void setFileThreshold(long threshold, File cacheDir) {
+        _fileThreshold = threshold;
+        _cacheDir = cacheDir;
+    }
+
+    /**
+     * Reconnect through the given connection when the connection is dropped.
+     *
+     * @param reconnecting
+     */
+    public void setReconnectingConnection(ReconnectingConnection reconnecting) {
+        _reconnecting = reconnecting;
+    }
+
     @Override
     public void onOpen(Connection conn) {
-        _openListener.onOpen(_id, conn);
+        _conn = conn;
+        _openListener.onOpen(_id, _reconnecting == null ? conn : _reconnecting.attach(conn));
 
         String protocol = conn.getProtocol();
         String extensions = conn.getExtensions();
@@ -99,22 +186,294 @@ class WebSocketGenerator implements
 
     @Override
     public void onMessage(String data) {
-        sendCallback("T" + data, true);
+        sendMessageCallback("T" + data);
     }
 
     @Override
     public void onMessage(byte[] data, int offset, int length) {
-        sendCallback((String) TextUtils.concat(
-                "B", String.format("%08x", length), new String(data, offset, length, ISO_8859_1)), true);
+        if (_binaryPluginResult) {
+            if (offset != 0 || length != data.length) {
+                data = Arrays.copyOfRange(data, offset, offset + length);
+            }
+            synchronized (this) {
+                flushBatch();
+                sendCallback(new PluginResult(Status.OK, data), true);
+            }
+        } else {
+            sendMessageCallback((String) TextUtils.concat(
+                    "B", String.format("%08x", length), new String(data, offset, length, ISO_8859_1)));
+        }
+    }
+
+    @Override
+    public boolean onMessageStart(byte opcode) {
+        return opcode == OP_BINARY;
+    }
+
+    /**
+     * Collect the pieces of a binary message into chunks. A message larger than a chunk is
+     * forwarded chunk by chunk, so that it is never held in full.
+     */
+    @Override
+    public void onMessageFragment(byte[] data, int offset, int length, long position) {
+        if (_discarding) {
+            return;
+        }
+        if (_fileThreshold > 0) {
+            if (_channel == null && position + length > _fileThreshold) {
+                openFile();
+            }
+            if (_channel != null) {
+                writeFile(data, offset, length);
+                return;
+            }
+            if (_chunk == null || _chunk.length < _chunkLength + length) {
+                byte[] chunk = new byte[(int) Math.min(_fileThreshold,
+                        Math.max(CHUNK_SIZE, Math.max(_chunkLength + length, _chunkLength * 2L)))];
+
+                if (_chunkLength > 0) {
+                    System.arraycopy(_chunk, 0, chunk, 0, _chunkLength);
+                }
+                _chunk = chunk;
+            }
+            System.arraycopy(data, offset, _chunk, _chunkLength, length);
+            _chunkLength += length;
+            return;
+        }
+        if (_chunk == null) {
+            _chunk = new byte[CHUNK_SIZE];
+        }
+        while (length > 0) {
+            int n = Math.min(length, CHUNK_SIZE - _chunkLength);
+
+            System.arraycopy(data, offset, _chunk, _chunkLength, n);
+            _chunkLength += n;
+            offset += n;
+            length -= n;
+            if (_chunkLength == CHUNK_SIZE) {
+                sendChunk();
+            }
+        }
+    }
+
+    @Override
+    public void onMessageEnd(long length) {
+        if (_discarding) {
+            _discarding = false;
+        } else if (_channel != null) {
+            closeFile(length);
+        } else if (_streaming) {
+            if (_chunkLength > 0) {
+                sendChunk();
+            }
+            synchronized (this) {
+                sendCallback(String.format("E%08x", length), true);
+            }
+            _streaming = false;
+        } else {
+            onMessage(_chunk, 0, _chunkLength);
+        }
+        _chunk = null;
+        _chunkLength = 0;
+    }
+
+    /**
+     * Start writing the current message into a new file, beginning with what has been received so far.
+     */
+    private void openFile() {
+        try {
+            _digest = MessageDigest.getInstance(DIGEST);
+            if (!_cacheDir.isDirectory() && !_cacheDir.mkdirs()) {
+                throw new IOException("Cannot create " + _cacheDir);
+            }
+            _file = File.createTempFile("message", ".bin", _cacheDir);
+            _channel = new FileOutputStream(_file).getChannel();
+        } catch (NoSuchAlgorithmException e) {
+            discardFile("No " + DIGEST);
+            return;
+        } catch (IOException e) {
+            discardFile(e.getMessage());
+            return;
+        }
+        if (_chunkLength > 0) {
+            writeFile(_chunk, 0, _chunkLength);
+        }
+        _chunk = null;
+        _chunkLength = 0;
+    }
+
+    private void writeFile(byte[] data, int offset, int length) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+
+            while (buffer.hasRemaining()) {
+                _channel.write(buffer);
+            }
+            _digest.update(data, offset, length);
+        } catch (IOException e) {
+            discardFile(e.getMessage());
+        }
+    }
+
+    /**
+     * Complete the file of the current message, and pass its path, size and digest to JavaScript.
+     *
+     * @param length
+     */
+    private void closeFile(long length) {
+        try {
+            _channel.close();
+
+            StringBuilder digest = new StringBuilder();
+            for (byte b : _digest.digest()) {
+                digest.append(String.format("%02x", b));
+            }
+            JSONObject file = new JSONObject();
+            file.put("path", _file.getAbsolutePath());
+            file.put("size", length);
+            file.put("digest", digest.toString());
+            sendMessageCallback("F" + file.toString());
+        } catch (IOException e) {
+            discardFile(e.getMessage());
+            _discarding = false;
+        } catch (JSONException e) {
+            discardFile(e.getMessage());
+            _discarding = false;
+        }
+        _channel = null;
+        _file = null;
+        _digest = null;
+    }
+
+    /**
+     * Drop the file of the current message, and the rest of the message. The connection is closed
+     * when the message could not be written.
+     *
+     * @param reason null if the connection is already closed
+     */
+    private void discardFile(String reason) {
+        if (_channel != null) {
+            try {
+                _channel.close();
+            } catch (IOException e) {
+            }
+        }
+        if (_file != null) {
+            _file.delete();
+        }
+        _channel = null;
+        _file = null;
+        _digest = null;
+        _chunk = null;
+        _chunkLength = 0;
+        _discarding = true;
+        if (reason != null && _conn != null) {
+            // Through the reconnecting connection, if any, so that it does not reconnect
+            Connection conn = _reconnecting != null ? _reconnecting : _conn;
+            conn.close(CLOSE_SERVER_ERROR, "Cannot write message: " + reason);
+        }
+    }
+
+    /**
+     * Send the current chunk of a streamed message, after the start of the message if it is the first.
+     */
+    private void sendChunk() {
+        synchronized (this) {
+            if (!_streaming) {
+                flushBatch();
+                sendCallback("S", true);
+                _streaming = true;
+            }
+            if (_binaryPluginResult) {
+                sendCallback(new PluginResult(Status.OK, Arrays.copyOf(_chunk, _chunkLength)), true);
+            } else {
+                sendCallback("P" + new String(_chunk, 0, _chunkLength, ISO_8859_1), true);
+            }
+        }
+        _chunkLength = 0;
     }
 
     @Override
     public void onClose(int code, String reason) {
+        if (_channel != null) {
+            discardFile(null);
+        }
+        _discarding = false;
+        _chunk = null;
+        _chunkLength = 0;
+        _streaming = false;
+        boolean remote = _conn instanceof FrameConnection && ((FrameConnection) _conn).isClosedByPeer();
+        // So that a failed attempt to reconnect is not taken for the previous connection
+        _conn = null;
+        if (_reconnecting != null) {
+            long delay = _reconnecting.detach(code, remote);
+
+            if (delay >= 0) {
+                synchronized (this) {
+                    flushBatch();
+                    sendCallback(String.format("R%4d%d", code, delay), true);
+                }
+                return;
+            }
+        }
         _closeListener.onClose(_id);
 
         String wasClean = code == 1000 ? "1" : "0";
         reason = reason == null ? "" : reason;
-        sendCallback(String.format("C%s%4d%s", wasClean, code, reason), false);
+        synchronized (this) {
+            flushBatch();
+            sendCallback(String.format("C%s%4d%s", wasClean, code, reason), false);
+        }
+    }
+
+    /**
+     * Send a message, or add it to the current batch.
+     * Each message in a batch is prefixed with its length in 8 hex digits.
+     *
+     * @param callbackString
+     */
+    private synchronized void sendMessageCallback(String callbackString) {
+        if (_batchDelay <= 0 || callbackString.length() >= MAX_BATCH_LENGTH) {
+            flushBatch();
+            sendCallback(callbackString, true);
+            return;
+        }
+        if (_batchCount == 0) {
+            _batch.append('M');
+        }
+        String length = Integer.toHexString(callbackString.length());
+        for (int i = length.length(); i < 8; i++) {
+            _batch.append('0');
+        }
+        _batch.append(length).append(callbackString);
+        _batchCount++;
+
+        if (_batchCount >= MAX_BATCH_COUNT || _batch.length() >= MAX_BATCH_LENGTH) {
+            flushBatch();
+        } else if (_batchFlush == null) {
+            try {
+                _batchFlush = _scheduler.schedule(_flushTask, _batchDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                flushBatch();
+            }
+        }
+    }
+
+    /**
+     * Send the current batch, if any.
+     */
+    private synchronized void flushBatch() {
+        if (_batchFlush != null) {
+            _batchFlush.cancel(false);
+            _batchFlush = null;
+        }
+        if (_batchCount > 0) {
+            // A batch of one is sent as a plain message
+            String callbackString = _batchCount == 1 ? _batch.substring(9) : _batch.toString();
+            _batch.setLength(0);
+            _batchCount = 0;
+            sendCallback(callbackString, true);
+        }
     }
 
     /**
@@ -124,8 +483,17 @@ class WebSocketGenerator implements
      * @param keepCallback
      */
     private void sendCallback(String callbackString, boolean keepCallback) {
+        sendCallback(new PluginResult(Status.OK, callbackString), keepCallback);
+    }
+
+    /**
+     * Send plugin result.
+     *
+     * @param result
+     * @param keepCallback
+     */
+    private void sendCallback(PluginResult result, boolean keepCallback) {
         if (!_ctx.isFinished()) {
-            PluginResult result = new PluginResult(Status.OK, callbackString);
             result.setKeepCallback(keepCallback);
             _ctx.sendPluginResult(result);
         }
@@ -27,6 +27,13 @@ public interface AsyncEndPoint extends ConnectedEndPoint
      */
     public void dispatch();
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Dispatch the endpoint. If it is already dispatched, the handling
+     * thread will handle it again before it returns.
+     */
+    public void asyncDispatch();
+
     /* ------------------------------------------------------------ */
     /** Schedule a write dispatch.
      * Set the endpoint to not be writable and schedule a dispatch when
@@ -0,0 +1,330 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2015 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+package org.eclipse.jetty.io;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.io.nio.IndirectNIOBuffer;
+import org.eclipse.jetty.util.StripedCounter;
+
+/* ------------------------------------------------------------ */
+/** Bounded buffer pool shared by all threads.
+ * <p>
+ * Buffers are pooled in power of two size classes, in separate arenas for
+ * direct and heap buffers. Each size class is a lock free queue. The bytes held
+ * by the pool are capped: a buffer returned to a full pool is left to the garbage
+ * collector. A size class that has not been used for the idle time is trimmed.
+ * Requests larger than the largest size class are allocated and never pooled.
+ */
+public class BufferPool
+{
+    private static final int __MIN_SHIFT=10;
+
+    private final SizeClass[] _direct;
+    private final SizeClass[] _heap;
+    private final int _maxSize;
+    private final AtomicLong _memory=new AtomicLong();
+    private final AtomicLong _nextTrim=new AtomicLong();
+    private volatile long _maxMemory;
+    private volatile long _idleTime;
+
+    private final StripedCounter _hits=new StripedCounter();
+    private final StripedCounter _misses=new StripedCounter();
+    private final StripedCounter _allocated=new StripedCounter();
+    private final StripedCounter _directAllocations=new StripedCounter();
+    private final StripedCounter _discards=new StripedCounter();
+    private final StripedCounter _trimmed=new StripedCounter();
+
+    /* ------------------------------------------------------------ */
+    public BufferPool()
+    {
+        this(64*1024,2*1024*1024,60000L);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxSize the size of the largest pooled buffer, rounded up to a power of two
+     * @param maxMemory the maximum number of bytes held by the pool
+     * @param idleTime the time in ms after which an unused size class is emptied
+     */
+    public BufferPool(int maxSize, long maxMemory, long idleTime)
+    {
+        int classes=Math.max(0,shift(maxSize)-__MIN_SHIFT)+1;
+        _maxSize=1<<(__MIN_SHIFT+classes-1);
+        _direct=new SizeClass[classes];
+        _heap=new SizeClass[classes];
+        for (int i=0;i<classes;i++)
+        {
+            _direct[i]=new SizeClass(1<<(__MIN_SHIFT+i));
+            _heap[i]=new SizeClass(1<<(__MIN_SHIFT+i));
+        }
+        _maxMemory=maxMemory;
+        _idleTime=idleTime;
+        _nextTrim.set(System.currentTimeMillis()+idleTime);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int shift(int size)
+    {
+        return size<=1?0:32-Integer.numberOfLeadingZeros(size-1);
+    }
+
+    /* ------------------------------------------------------------ */
+    private SizeClass sizeClass(int capacity, boolean direct)
+    {
+        if (capacity>_maxSize)
+            return null;
+        int index=Math.max(0,shift(capacity)-__MIN_SHIFT);
+        return direct?_direct[index]:_heap[index];
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param size the minimum capacity of the buffer
+     * @param direct true for a direct buffer, false for a heap buffer
+     * @return an empty buffer of at least the given size, which should be released when done with
+     */
+    public Buffer acquire(int size, boolean direct)
+    {
+        SizeClass sizeClass=sizeClass(size,direct);
+        if (sizeClass!=null)
+        {
+            sizeClass._lastUsed=System.currentTimeMillis();
+            Buffer buffer=sizeClass._buffers.poll();
+            if (buffer!=null)
+            {
+                _memory.addAndGet(-sizeClass._size);
+                _hits.increment();
+                return buffer;
+            }
+            size=sizeClass._size;
+        }
+
+        _misses.increment();
+        _allocated.add(size);
+        if (direct)
+        {
+            _directAllocations.increment();
+            return new DirectNIOBuffer(size);
+        }
+        return new IndirectNIOBuffer(size);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param buffer a buffer that is no longer used. Buffers that were not acquired
+     * from a pool, or that do not fit in it, are dropped.
+     */
+    public void release(Buffer buffer)
+    {
+        if (buffer==null)
+            return;
+        buffer.clear();
+        if (buffer.isVolatile() || buffer.isImmutable())
+            return;
+
+        boolean direct=buffer instanceof DirectNIOBuffer;
+        if (!direct && !(buffer instanceof IndirectNIOBuffer))
+            return;
+
+        int capacity=buffer.capacity();
+        SizeClass sizeClass=sizeClass(capacity,direct);
+        if (sizeClass==null || sizeClass._size!=capacity)
+            return;
+
+        if (_memory.addAndGet(capacity)>_maxMemory)
+        {
+            _memory.addAndGet(-capacity);
+            _discards.increment();
+        }
+        else
+            sizeClass._buffers.offer(buffer);
+
+        long now=System.currentTimeMillis();
+        long next=_nextTrim.get();
+        if (now>=next && _nextTrim.compareAndSet(next,now+_idleTime))
+            trim(now);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Empty the size classes that have not been used since the idle time.
+     * @param now the current time
+     */
+    public void trim(long now)
+    {
+        long idle=now-_idleTime;
+        trim(_direct,idle);
+        trim(_heap,idle);
+    }
+
+    /* ------------------------------------------------------------ */
+    private void trim(SizeClass[] arena, long idle)
+    {
+        for (SizeClass sizeClass : arena)
+        {
+            if (sizeClass._lastUsed>idle)
+                continue;
+            while (sizeClass._buffers.poll()!=null)
+            {
+                _memory.addAndGet(-sizeClass._size);
+                _trimmed.increment();
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Empty the pool.
+     */
+    public void clear()
+    {
+        trim(Long.MAX_VALUE);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the size of the largest pooled buffer
+     */
+    public int getMaxSize()
+    {
+        return _maxSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of bytes held by the pool
+     */
+    public long getMaxMemory()
+    {
+        return _maxMemory;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxMemory the maximum number of bytes held by the pool
+     */
+    public void setMaxMemory(long maxMemory)
+    {
+        _maxMemory=maxMemory;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the time in ms after which an unused size class is emptied
+     */
+    public long getIdleTime()
+    {
+        return _idleTime;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param idleTime the time in ms after which an unused size class is emptied
+     */
+    public void setIdleTime(long idleTime)
+    {
+        _idleTime=idleTime;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of bytes held by the pool
+     */
+    public long getMemory()
+    {
+        return _memory.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of buffers acquired from the pool
+     */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of buffers that had to be allocated
+     */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of bytes allocated
+     */
+    public long getAllocatedBytes()
+    {
+        return _allocated.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of direct buffers allocated
+     */
+    public long getDirectAllocations()
+    {
+        return _directAllocations.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of buffers dropped because the pool was full
+     */
+    public long getDiscards()
+    {
+        return _discards.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of buffers released by trimming
+     */
+    public long getTrimmed()
+    {
+        return _trimmed.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%d/%d,hits=%d,misses=%d}",getClass().getSimpleName(),hashCode(),getMemory(),_maxMemory,getHits(),getMisses());
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class SizeClass
+    {
+        final int _size;
+        final ConcurrentLinkedQueue<Buffer> _buffers=new ConcurrentLinkedQueue<Buffer>();
+        volatile long _lastUsed=System.currentTimeMillis();
+
+        SizeClass(int size)
+        {
+            _size=size;
+        }
+    }
+}
@@ -34,6 +34,7 @@ import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.io.nio.SelectorManager.SelectSet;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Timeout;
 
 /* ------------------------------------------------------------ */
 /**
@@ -86,6 +87,7 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
 
     private volatile long _idleTimestamp;
     private volatile boolean _checkIdle;
+    private final IdleCheck _idleCheck = new IdleCheck();
 
     private boolean _interruptable;
 
@@ -206,6 +208,18 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
         }
     }
 
+    /* ------------------------------------------------------------ */
+    public void asyncDispatch()
+    {
+        synchronized(this)
+        {
+            if (_state==STATE_DISPATCHED)
+                _state=STATE_ASYNC;
+            else
+                dispatch();
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * Called when a dispatched thread is no longer handling the endpoint.
@@ -238,11 +252,20 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
         {
             _idleTimestamp=System.currentTimeMillis();
             _checkIdle=true;
+            // Activity only moves the timestamp; the check reschedules itself when it finds it moved
+            if (!_idleCheck.isScheduled() && _maxIdleTime>0)
+                _selectSet.scheduleTimeout(_idleCheck,_maxIdleTime);
         }
         else
             _checkIdle=false;
     }
 
+    /* ------------------------------------------------------------ */
+    void cancelIdle()
+    {
+        _selectSet.cancelTimeout(_idleCheck);
+    }
+
     /* ------------------------------------------------------------ */
     public boolean isCheckForIdle()
     {
@@ -701,6 +724,30 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements AsyncEndPo
     @Override
     public void setMaxIdleTime(int timeMs) throws IOException
     {
+        int old=_maxIdleTime;
         _maxIdleTime=timeMs;
+        if (timeMs>0 && (old<=0 || timeMs<old) && isCheckForIdle() && isOpen())
+            _selectSet.scheduleTimeout(_idleCheck,Math.max(0L,_idleTimestamp+timeMs-System.currentTimeMillis()));
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * Timer driven idle check, run when the endpoint may have been idle for its max idle time.
+     */
+    private class IdleCheck extends Timeout.Task implements Runnable
+    {
+        public void run()
+        {
+            if (!isOpen() || !isCheckForIdle() || _maxIdleTime<=0)
+                return;
+
+            long idle_now=_selectSet.getIdleNow();
+            long idleForMs=idle_now-_idleTimestamp;
+            if (idleForMs>_maxIdleTime)
+                checkIdleTimestamp(idle_now);
+            else
+                _selectSet.scheduleTimeout(this,_maxIdleTime-idleForMs+1);
+        }
     }
 }
@@ -42,6 +42,7 @@ import org.eclipse.jetty.io.AsyncEndPoint;
 import org.eclipse.jetty.io.ConnectedEndPoint;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.StripedCounter;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.component.AggregateLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
@@ -72,8 +73,10 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
     private SelectSet[] _selectSet;
     private int _selectSets=1;
     private volatile int _set=0;
+    private boolean _balanceByLoad=true;
     private boolean _deferringInterestedOps0=true;
     private int _selectorPriorityDelta=0;
+    private final StripedCounter _wakeups=new StripedCounter();
 
     /* ------------------------------------------------------------ */
     /**
@@ -93,12 +96,74 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         return _selectSets;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param selectSets number of select sets to create, each with its own selector thread
+     */
+    public void setSelectSets(int selectSets)
+    {
+        long lrc = _lowResourcesConnections * _selectSets;
+        _selectSets=Math.max(1,selectSets);
+        _lowResourcesConnections=lrc/_selectSets;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param i the index of the select set
+     * @return the select set, or null if the manager is not running
+     */
+    public SelectSet getSelectSet(int i)
+    {
+        SelectSet[] sets=_selectSet;
+        return sets==null?null:sets[i];
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if channels are registered with the least loaded select set
+     */
+    public boolean isBalanceByLoad()
+    {
+        return _balanceByLoad;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param balanceByLoad true to register channels with the select set that has the fewest
+     * endpoints and pending changes, false to register them round-robin
+     */
+    public void setBalanceByLoad(boolean balanceByLoad)
+    {
+        _balanceByLoad=balanceByLoad;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of times a selector has been woken up
+     */
+    public long getWakeups()
+    {
+        return _wakeups.get();
+    }
+
     /* ------------------------------------------------------------ */
     /** Register a channel
      * @param channel
      * @param att Attached Object
      */
     public void register(SocketChannel channel, Object att)
+    {
+        SelectSet[] sets=_selectSet;
+        if (sets!=null)
+        {
+            SelectSet set=_balanceByLoad?leastLoaded(sets):sets[nextSet(sets.length)];
+            set.addChange(channel,att);
+            set.wakeup();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private int nextSet(int sets)
     {
         // The ++ increment here is not atomic, but it does not matter.
         // so long as the value changes sometimes, then connections will
@@ -107,14 +172,40 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         int s=_set++;
         if (s<0)
             s=-s;
-        s=s%_selectSets;
-        SelectSet[] sets=_selectSet;
-        if (sets!=null)
+        return s%sets;
+    }
+
+    /* ------------------------------------------------------------ */
+    private SelectSet leastLoaded(SelectSet[] sets)
+    {
+        // Start from a rotating set so that ties are spread out
+        int first=nextSet(sets.length);
+        SelectSet best=sets[first];
+        int least=best.getLoad();
+        for (int i=1;i<sets.length && least>0;i++)
         {
-            SelectSet set=sets[s];
-            set.addChange(channel,att);
-            set.wakeup();
+            SelectSet set=sets[(first+i)%sets.length];
+            int load=set.getLoad();
+            if (load<least)
+            {
+                best=set;
+                least=load;
+            }
         }
+        return best;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Schedule a timeout task on one of the select sets.
+     * The task must be {@link Runnable}; it is dispatched when it expires.
+     * @param task the task to schedule
+     * @param timeoutMs the delay in ms before the task expires
+     */
+    public void scheduleTimeout(Timeout.Task task, long timeoutMs)
+    {
+        SelectSet[] sets=_selectSet;
+        if (sets!=null)
+            sets[nextSet(sets.length)].scheduleTimeout(task,timeoutMs);
     }
 
     /* ------------------------------------------------------------ */
@@ -241,6 +332,18 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
      */
     protected abstract SelectChannelEndPoint newEndPoint(SocketChannel channel, SelectorManager.SelectSet selectSet, SelectionKey sKey) throws IOException;
 
+    /* ------------------------------------------------------------------------------- */
+    /**
+     * Called when a registered channel has connected, before an endpoint is created for it.
+     * @param channel the connected channel
+     * @param attachment the object the channel was registered with
+     * @return false to close the channel instead
+     */
+    protected boolean connectionEstablished(SocketChannel channel,Object attachment)
+    {
+        return true;
+    }
+
     /* ------------------------------------------------------------------------------- */
     protected void connectionFailed(SocketChannel channel,Throwable ex,Object attachment)
     {
@@ -268,11 +371,13 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         private volatile Selector _selector;
 
         private volatile Thread _selecting;
+        private final StripedCounter _setWakeups=new StripedCounter(1);
+        private volatile long _selects;
+        private volatile long _totalBusySelects;
         private int _busySelects;
         private long _monitorNext;
         private boolean _pausing;
         private boolean _paused;
-        private volatile long _idleTick;
         private ConcurrentMap<SelectChannelEndPoint,Object> _endPoints = new ConcurrentHashMap<SelectChannelEndPoint, Object>();
 
         /* ------------------------------------------------------------ */
@@ -280,7 +385,6 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         {
             _setID=acceptorID;
 
-            _idleTick = System.currentTimeMillis();
             _timeout = new Timeout(this);
             _timeout.setDuration(0L);
 
@@ -349,6 +453,11 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
 
                             if ((channel instanceof SocketChannel) && ((SocketChannel)channel).isConnected())
                             {
+                                if (!connectionEstablished((SocketChannel)channel,att))
+                                {
+                                    channel.close();
+                                    continue;
+                                }
                                 key = channel.register(selector,SelectionKey.OP_READ,att);
                                 SelectChannelEndPoint endpoint = createEndPoint((SocketChannel)channel,key);
                                 key.attach(endpoint);
@@ -439,6 +548,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                     {
                         long before=now;
                         selector.select(wait);
+                        _selects++;
                         now = System.currentTimeMillis();
                         _timeout.setNow(now);
 
@@ -446,6 +556,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                         // and this select did not wait more than 1ms
                         if (__MONITOR_PERIOD>0 && now-before <=1)
                         {
+                            _totalBusySelects++;
                             // count this as a busy select and if there have been too many this monitor cycle
                             if (++_busySelects>__MAX_SELECTS)
                             {
@@ -478,9 +589,9 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                         if (!key.isValid())
                         {
                             key.cancel();
-                            SelectChannelEndPoint endpoint = (SelectChannelEndPoint)key.attachment();
-                            if (endpoint != null)
-                                endpoint.doUpdateKey();
+                            Object att = key.attachment();
+                            if (att instanceof SelectChannelEndPoint)
+                                ((SelectChannelEndPoint)att).doUpdateKey();
                             continue;
                         }
 
@@ -505,7 +616,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                             }
                             finally
                             {
-                                if (connected)
+                                if (connected && connectionEstablished(channel,att))
                                 {
                                     key.interestOps(SelectionKey.OP_READ);
                                     SelectChannelEndPoint endpoint = createEndPoint(channel,key);
@@ -569,29 +680,6 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                     task = _timeout.expired();
                 }
 
-                // Idle tick
-                if (now-_idleTick>__IDLE_TICK)
-                {
-                    _idleTick=now;
-
-                    final long idle_now=((_lowResourcesConnections>0 && selector.keys().size()>_lowResourcesConnections))
-                        ?(now+_maxIdleTime-_lowResourcesMaxIdleTime)
-                        :now;
-
-                    dispatch(new Runnable()
-                    {
-                        public void run()
-                        {
-                            for (SelectChannelEndPoint endp:_endPoints.keySet())
-                            {
-                                endp.checkIdleTimestamp(idle_now);
-                            }
-                        }
-                        public String toString() {return "Idle-"+super.toString();}
-                    });
-
-                }
-
                 // Reset busy select monitor counts
                 if (__MONITOR_PERIOD>0 && now>_monitorNext)
                 {
@@ -658,12 +746,95 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             return SelectorManager.this;
         }
 
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the number of endpoints plus the number of pending changes
+         */
+        int getLoad()
+        {
+            return _endPoints.size()+_changes.size();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the number of keys registered with the selector
+         */
+        public int getKeys()
+        {
+            Selector selector=_selector;
+            return selector==null?0:selector.keys().size();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the number of endpoints of this set
+         */
+        public int getEndPoints()
+        {
+            return _endPoints.size();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the number of blocking selects performed
+         */
+        public long getSelects()
+        {
+            return _selects;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the number of selects that returned within 1ms
+         */
+        public long getBusySelects()
+        {
+            return _totalBusySelects;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the number of times the selector of this set has been woken up
+         */
+        public long getWakeups()
+        {
+            return _setWakeups.get();
+        }
+
         /* ------------------------------------------------------------ */
         public long getNow()
         {
             return _timeout.getNow();
         }
 
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the time against which the idle timestamps of the endpoints of this set are checked,
+         * brought forward when this set holds more than the low resources connections
+         */
+        public long getIdleNow()
+        {
+            long now=System.currentTimeMillis();
+            Selector selector=_selector;
+            if (_lowResourcesConnections>0 && selector!=null && selector.keys().size()>_lowResourcesConnections)
+                return now+_maxIdleTime-_lowResourcesMaxIdleTime;
+            return now;
+        }
+
+        /* ------------------------------------------------------------ */
+        public void scheduleTimeout(Timeout.Task task, long timeoutMs)
+        {
+            if (!(task instanceof Runnable))
+                throw new IllegalArgumentException("!Runnable");
+            _timeout.schedule(task, timeoutMs);
+        }
+
+        /* ------------------------------------------------------------ */
+        public void cancelTimeout(Timeout.Task task)
+        {
+            task.cancel();
+        }
+
         /* ------------------------------------------------------------ */
         public void wakeup()
         {
@@ -671,7 +842,11 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             {
                 Selector selector = _selector;
                 if (selector!=null)
+                {
+                    _wakeups.increment();
+                    _setWakeups.increment();
                     selector.wakeup();
+                }
             }
             catch(Exception e)
             {
@@ -702,6 +877,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         {
             LOG.debug("destroyEndPoint {}",endp);
             _endPoints.remove(endp);
+            endp.cancelIdle();
             endPointClosed(endp);
         }
 
@@ -38,6 +38,7 @@ import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
 /* ------------------------------------------------------------ */
 /** SSL Connection.
@@ -67,6 +68,11 @@ public class SslConnection extends AbstractConnection implements AsyncConnection
     private AsyncEndPoint _aEndp;
     private boolean _allowRenegotiate=true;
     private boolean _handshook;
+    private ThreadPool _taskPool;
+    private volatile boolean _tasksPending;
+    private volatile long _taskNanos;
+    private final long _created=System.nanoTime();
+    private long _handshakeNanos;
     private boolean _ishut;
     private boolean _oshut;
     private final AtomicBoolean _progressed = new AtomicBoolean();
@@ -110,6 +116,86 @@ public class SslConnection extends AbstractConnection implements AsyncConnection
         return new SslEndPoint();
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param pool the pool to run the delegated tasks of the engine on, or null to run
+     * them on the thread handling the connection
+     */
+    public void setTaskPool(ThreadPool pool)
+    {
+        _taskPool=pool;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the time spent running delegated tasks of the engine, in ns
+     */
+    public long getTaskNanos()
+    {
+        return _taskNanos;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the duration of the initial handshake in ns, or 0 if it has not completed
+     */
+    public long getHandshakeNanos()
+    {
+        return _handshakeNanos;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void handshook()
+    {
+        if (!_handshook)
+        {
+            _handshook=true;
+            _handshakeNanos=System.nanoTime()-_created;
+            onHandshook(_engine.getSession());
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean runDelegatedTasks()
+    {
+        long start=System.nanoTime();
+        boolean ran=false;
+        Runnable task;
+        while ((task=_engine.getDelegatedTask())!=null)
+        {
+            ran=true;
+            task.run();
+        }
+        _taskNanos+=System.nanoTime()-start;
+        return ran;
+    }
+
+    /* ------------------------------------------------------------ */
+    private final Runnable _delegatedTasks=new Runnable()
+    {
+        public void run()
+        {
+            try
+            {
+                runDelegatedTasks();
+            }
+            finally
+            {
+                _tasksPending=false;
+                _aEndp.asyncDispatch();
+            }
+        }
+    };
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Called once, when the initial handshake has completed.
+     * @param session the negotiated session
+     */
+    protected void onHandshook(SSLSession session)
+    {
+    }
+
     /* ------------------------------------------------------------ */
     private void allocateBuffers()
     {
@@ -339,14 +425,23 @@ public class SslConnection extends AbstractConnection implements AsyncConnection
 
                     case NEED_TASK:
                     {
-                        // A task needs to be run, so run it!
-                        Runnable task;
-                        while ((task=_engine.getDelegatedTask())!=null)
+                        // Wait for the tasks already running on the pool
+                        if (_tasksPending)
+                            break;
+
+                        // Run the tasks on the pool, to be redispatched when they are done
+                        ThreadPool pool=_taskPool;
+                        if (pool!=null)
                         {
-                            progress=true;
-                            task.run();
+                            _tasksPending=true;
+                            if (pool.dispatch(_delegatedTasks))
+                                break;
+                            _tasksPending=false;
                         }
 
+                        // A task needs to be run, so run it!
+                        if (runDelegatedTasks())
+                            progress=true;
                     }
                     break;
 
@@ -480,7 +575,7 @@ public class SslConnection extends AbstractConnection implements AsyncConnection
 
             case OK:
                 if (result.getHandshakeStatus()==HandshakeStatus.FINISHED)
-                    _handshook=true;
+                    handshook();
                 break;
 
             case CLOSED:
@@ -570,7 +665,7 @@ public class SslConnection extends AbstractConnection implements AsyncConnection
 
             case OK:
                 if (result.getHandshakeStatus()==HandshakeStatus.FINISHED)
-                    _handshook=true;
+                    handshook();
                 break;
 
             case CLOSED:
@@ -699,6 +794,11 @@ public class SslConnection extends AbstractConnection implements AsyncConnection
             _aEndp.dispatch();
         }
 
+        public void asyncDispatch()
+        {
+            _aEndp.asyncDispatch();
+        }
+
         public void scheduleWrite()
         {
             _aEndp.scheduleWrite();
@@ -0,0 +1,91 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2015 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* ------------------------------------------------------------ */
+/** A counter that spreads its updates over several cells.
+ * <p>
+ * Threads adding at the same time mostly hit different cells, each on its own
+ * cache line, so counting on a hot path does not contend. Reading sums the cells
+ * and is only as consistent as a sequence of volatile reads.
+ */
+public class StripedCounter
+{
+    /** Number of longs in a cell, so that cells do not share a cache line */
+    private static final int __PAD = 8;
+    private static final int __MAX_STRIPES = 8;
+
+    private final AtomicLongArray _cells;
+    private final int _mask;
+
+    /* ------------------------------------------------------------ */
+    /** Create a counter with a stripe for each processor, up to 8.
+     */
+    public StripedCounter()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param stripes the number of cells, rounded up to a power of 2
+     */
+    public StripedCounter(int stripes)
+    {
+        int n = 1;
+        while (n < stripes && n < __MAX_STRIPES)
+            n <<= 1;
+        _mask = n - 1;
+        _cells = new AtomicLongArray(n == 1 ? 1 : n * __PAD);
+    }
+
+    /* ------------------------------------------------------------ */
+    public void add(long delta)
+    {
+        int stripe = _mask == 0 ? 0 : ((int)Thread.currentThread().getId() & _mask) * __PAD;
+        _cells.addAndGet(stripe, delta);
+    }
+
+    /* ------------------------------------------------------------ */
+    public void increment()
+    {
+        add(1);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the sum of the cells
+     */
+    public long get()
+    {
+        long sum = 0;
+        for (int i = 0; i < _cells.length(); i += __PAD)
+            sum += _cells.get(i);
+        return sum;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return Long.toString(get());
+    }
+}
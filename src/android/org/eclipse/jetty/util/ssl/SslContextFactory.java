@@ -36,11 +36,14 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.net.ssl.CertPathTrustManagerParameters;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509KeyManager;
@@ -184,6 +187,18 @@ public class SslContextFactory extends AbstractLifeCycle
     private KeyStore _trustStore;
     /** Set to true to enable SSL Session caching */
     private boolean _sessionCachingEnabled = true;
+    /** SSL session cache size, or -1 for the provider default */
+    private int _sslSessionCacheSize = -1;
+    /** SSL session timeout in seconds, or -1 for the provider default */
+    private int _sslSessionTimeout = -1;
+    /** Handshakes that resumed a cached session */
+    private final AtomicLong _resumedSessions = new AtomicLong();
+    /** Handshakes that created a new session */
+    private final AtomicLong _newSessions = new AtomicLong();
+    /** Total duration of the handshakes in ns */
+    private final AtomicLong _handshakeNanos = new AtomicLong();
+    /** Total time spent in the delegated tasks of the handshakes in ns */
+    private final AtomicLong _taskNanos = new AtomicLong();
 
     /** SSL context */
     private SSLContext _context;
@@ -226,6 +241,7 @@ public class SslContextFactory extends AbstractLifeCycle
                 SecureRandom secureRandom = (_secureRandomAlgorithm == null)?null:SecureRandom.getInstance(_secureRandomAlgorithm);
                 _context = (_sslProvider == null)?SSLContext.getInstance(_sslProtocol):SSLContext.getInstance(_sslProtocol,_sslProvider);
                 _context.init(null, trust_managers, secureRandom);
+                configureSessionContext(_context.getClientSessionContext());
             }
             else
             {
@@ -265,6 +281,7 @@ public class SslContextFactory extends AbstractLifeCycle
                 SecureRandom secureRandom = (_secureRandomAlgorithm == null)?null:SecureRandom.getInstance(_secureRandomAlgorithm);
                 _context = (_sslProvider == null)?SSLContext.getInstance(_sslProtocol):SSLContext.getInstance(_sslProtocol,_sslProvider);
                 _context.init(keyManagers,trustManagers,secureRandom);
+                configureSessionContext(_context.getClientSessionContext());
 
                 SSLEngine engine=newSslEngine();
 
@@ -275,6 +292,17 @@ public class SslContextFactory extends AbstractLifeCycle
         }
     }
 
+    /* ------------------------------------------------------------ */
+    private void configureSessionContext(SSLSessionContext sessions)
+    {
+        if (sessions == null)
+            return;
+        if (_sslSessionCacheSize >= 0)
+            sessions.setSessionCacheSize(_sslSessionCacheSize);
+        if (_sslSessionTimeout >= 0)
+            sessions.setSessionTimeout(_sslSessionTimeout);
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @return True if SSL needs client authentication.
@@ -563,6 +591,113 @@ public class SslContextFactory extends AbstractLifeCycle
         return _sessionCachingEnabled;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the flag to enable SSL Session caching.
+     * Sessions are cached per peer host and port, so engines must be created
+     * with {@link #newSslEngine(String, int)} for sessions to be resumed.
+     * @param enableSessionCaching the value of the flag
+     */
+    public void setSessionCachingEnabled(boolean enableSessionCaching)
+    {
+        _sessionCachingEnabled = enableSessionCaching;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return SSL session cache size, or -1 for the provider default
+     */
+    public int getSslSessionCacheSize()
+    {
+        return _sslSessionCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param sslSessionCacheSize SSL session cache size to set, 0 for no limit, or -1 for the provider default
+     */
+    public void setSslSessionCacheSize(int sslSessionCacheSize)
+    {
+        _sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return SSL session timeout in seconds, or -1 for the provider default
+     */
+    public int getSslSessionTimeout()
+    {
+        return _sslSessionTimeout;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param sslSessionTimeout SSL session timeout in seconds to set, 0 for no limit, or -1 for the provider default
+     */
+    public void setSslSessionTimeout(int sslSessionTimeout)
+    {
+        _sslSessionTimeout = sslSessionTimeout;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Count a completed handshake as resumed or new, and record its timing.
+     * A resumed session keeps the creation time of the handshake that created it,
+     * which is earlier than the start of the current handshake.
+     * @param session the session negotiated by the handshake
+     * @param started the time in ms at which the engine was created
+     * @param handshakeNanos the duration of the handshake in ns
+     * @param taskNanos the time spent in delegated tasks of the engine in ns
+     */
+    public void onHandshake(SSLSession session, long started, long handshakeNanos, long taskNanos)
+    {
+        boolean resumed = session.getCreationTime() < started;
+        if (resumed)
+            _resumedSessions.incrementAndGet();
+        else
+            _newSessions.incrementAndGet();
+        _handshakeNanos.addAndGet(handshakeNanos);
+        _taskNanos.addAndGet(taskNanos);
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} handshake {}ms, tasks {}ms, resumed={}",session.getPeerHost(),handshakeNanos/1000000,taskNanos/1000000,resumed);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the total duration of the completed handshakes in ns
+     */
+    public long getHandshakeNanos()
+    {
+        return _handshakeNanos.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the total time spent in the delegated tasks of the completed handshakes in ns
+     */
+    public long getTaskNanos()
+    {
+        return _taskNanos.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of handshakes that resumed a cached session
+     */
+    public long getResumedSessions()
+    {
+        return _resumedSessions.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of handshakes that created a new session
+     */
+    public long getNewSessions()
+    {
+        return _newSessions.get();
+    }
+
     /* ------------------------------------------------------------ */
     public SSLEngine newSslEngine(String host,int port)
     {
@@ -22,24 +22,61 @@ package org.eclipse.jetty.util.thread;
 /* ------------------------------------------------------------ */
 /** Timeout queue.
  * This class implements a timeout queue for timers that are at least as likely to be cancelled as they are to expire.
- * Unlike the util timeout class, the duration of the timeouts is shared by all scheduled tasks and if the duration
- * is changed, this affects all scheduled tasks.
+ * Tasks are kept in a hashed timing wheel: each slot holds the tasks due in one tick, modulo the
+ * length of the wheel, so that scheduling and cancelling are constant time whatever the number of
+ * scheduled tasks. The delay of a task is measured from the current time when it is scheduled, so
+ * tasks never expire early, but may expire up to one tick late. The tick of the earliest task is kept,
+ * so that the time to the next timeout is found without walking the wheel.
+ * Unlike the util timeout class, the duration of the timeouts is shared by all scheduled tasks and is
+ * added to the delay of each task when it is scheduled.
  * <p>
  * The nested class Task should be extended by users of this class to obtain call back notification of
  * expires.
  */
 public class Timeout
 {
+    public static final long DEFAULT_TICK = 50L;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
     private Object _lock;
     private long _duration;
     private volatile long _now=System.currentTimeMillis();
-    private Task _head=new Task();
+    private final long _tick;
+    private final Task[] _wheel;
+    private final int _mask;
+    private long _cursor;
+    private long _next=Long.MAX_VALUE;
+    private int _size;
 
     /* ------------------------------------------------------------ */
     public Timeout(Object lock)
     {
+        this(lock,DEFAULT_TICK,DEFAULT_WHEEL_SIZE);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param lock The lock to synchronize on
+     * @param tick The resolution of the timeouts in ms
+     * @param wheelSize The number of slots of the wheel, rounded up to a power of two
+     */
+    public Timeout(Object lock, long tick, int wheelSize)
+    {
+        if (tick<=0)
+            throw new IllegalArgumentException("tick="+tick);
         _lock=lock;
-        _head._timeout=this;
+        _tick=tick;
+        int slots=1;
+        while (slots<wheelSize)
+            slots<<=1;
+        _wheel=new Task[slots];
+        _mask=slots-1;
+        for (int i=0;i<slots;i++)
+        {
+            _wheel[i]=new Task();
+            _wheel[i]._timeout=this;
+        }
+        _cursor=_now/_tick;
     }
 
     /* ------------------------------------------------------------ */
@@ -63,11 +100,22 @@ public class Timeout
         _now=now;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of scheduled tasks
+     */
+    public int size()
+    {
+        synchronized (_lock)
+        {
+            return _size;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /** Get an expired tasks.
-     * This is called instead of {@link #tick()} to obtain the next
-     * expired Task, but without calling it's {@link Task#expire()} or
-     * {@link Task#expired()} methods.
+     * This is called to obtain the next expired Task, but without calling
+     * it's {@link Task#expire()} or {@link Task#expired()} methods.
      *
      * @return the next expired task or null.
      */
@@ -75,19 +123,101 @@ public class Timeout
     {
         synchronized (_lock)
         {
-            long _expiry = _now-_duration;
+            long now = _now/_tick;
+            if (_size==0)
+            {
+                if (_cursor<now)
+                    _cursor=now;
+                _next=Long.MAX_VALUE;
+                return null;
+            }
+
+            // a slot holds tasks of every turn of the wheel, so one turn is enough to find all the expired ones
+            if (_cursor>now)
+                _cursor=now;
+            else if (now-_cursor>_mask)
+                _cursor=now-_mask;
 
-            if (_head._next!=_head)
+            while (_cursor<=now)
             {
-                Task task = _head._next;
-                if (task._timestamp>_expiry)
-                    return null;
+                Task head = _wheel[(int)(_cursor&_mask)];
+                for (Task task = head._next; task!=head; task=task._next)
+                {
+                    if (task._tick<=now)
+                    {
+                        task.unlink();
+                        task._timestamp=0;
+                        task._expired=true;
+                        return task;
+                    }
+                }
+                if (_cursor==now)
+                    break;
+                _cursor++;
+            }
+
+            // Every task due by now has expired, so look for the next one if it was due
+            if (_next<=now)
+                _next=nextTick(now);
+            return null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Find the earliest tick of the scheduled tasks. Called with the lock held,
+     * once all the tasks due by now have expired.
+     * @param now the current tick
+     * @return the earliest tick, or Long.MAX_VALUE if no task is scheduled
+     */
+    private long nextTick(long now)
+    {
+        long next=Long.MAX_VALUE;
+        // a task is found in its own slot before any task of a later turn could be earlier
+        for (long tick=now+1;tick<=now+1+_mask && tick<next;tick++)
+        {
+            Task head = _wheel[(int)(tick&_mask)];
+            for (Task task = head._next; task!=head; task=task._next)
+                if (task._tick<next)
+                    next=task._tick;
+        }
+        return next;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void schedule(Task task)
+    {
+        schedule(task,0L);
+    }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param task
+     * @param delay A delay in addition to the default duration of the timeout
+     */
+    public void schedule(Task task,long delay)
+    {
+        synchronized (_lock)
+        {
+            if (task._timestamp!=0)
+            {
                 task.unlink();
-                task._expired=true;
-                return task;
+                task._timestamp=0;
             }
-            return null;
+            task._timeout=this;
+            task._expired=false;
+            task._delay=delay;
+            // _now is only brought forward by the select loop, so it may be a whole select behind
+            task._timestamp = Math.max(_now,System.currentTimeMillis())+delay;
+
+            // round up, so that a task never expires before its time
+            long tick = (task._timestamp+_duration+_tick-1)/_tick;
+            if (tick<_cursor)
+                tick=_cursor;
+            task._tick=tick;
+            if (tick<_next)
+                _next=tick;
+            _wheel[(int)(tick&_mask)]._prev.link(task);
         }
     }
 
@@ -96,7 +226,16 @@ public class Timeout
     {
         synchronized (_lock)
         {
-            _head._next=_head._prev=_head;
+            for (Task head : _wheel)
+            {
+                while (head._next!=head)
+                {
+                    Task task = head._next;
+                    task.unlink();
+                    task._timestamp=0;
+                }
+            }
+            _next=Long.MAX_VALUE;
         }
     }
 
@@ -105,9 +244,11 @@ public class Timeout
     {
         synchronized (_lock)
         {
-            if (_head._next==_head)
+            if (_size==0 || _next==Long.MAX_VALUE)
                 return -1;
-            long to_next = _duration+_head._next._timestamp-_now;
+
+            // The earliest task may have been cancelled since; waking up for it is harmless
+            long to_next=_next*_tick-_now;
             return to_next<0?0:to_next;
         }
     }
@@ -119,12 +260,18 @@ public class Timeout
         StringBuffer buf = new StringBuffer();
         buf.append(super.toString());
 
-        Task task = _head._next;
-        while (task!=_head)
+        synchronized (_lock)
         {
-            buf.append("-->");
-            buf.append(task);
-            task=task._next;
+            for (Task head : _wheel)
+            {
+                Task task = head._next;
+                while (task!=head)
+                {
+                    buf.append("-->");
+                    buf.append(task);
+                    task=task._next;
+                }
+            }
         }
 
         return buf.toString();
@@ -149,6 +296,7 @@ public class Timeout
         Timeout _timeout;
         long _delay;
         long _timestamp=0;
+        long _tick;
         boolean _expired=false;
 
         /* ------------------------------------------------------------ */
@@ -160,10 +308,67 @@ public class Timeout
         /* ------------------------------------------------------------ */
         private void unlink()
         {
+            if (_next!=this)
+                _timeout._size--;
             _next._prev=_prev;
             _prev._next=_next;
             _next=_prev=this;
             _expired=false;
         }
+
+        /* ------------------------------------------------------------ */
+        private void link(Task task)
+        {
+            Task next_next = _next;
+            _next._prev=task;
+            _next=task;
+            _next._next=next_next;
+            _next._prev=this;
+            _timeout._size++;
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Schedule the task on the given timeout.
+         * The task expiry will be called after the timeout duration.
+         * @param timer
+         */
+        public void schedule(Timeout timer)
+        {
+            timer.schedule(this);
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Schedule the task on the given timeout.
+         * The task expiry will be called after the timeout duration.
+         * @param timer
+         * @param delay
+         */
+        public void schedule(Timeout timer, long delay)
+        {
+            timer.schedule(this,delay);
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Cancel the task.
+         * Remove the task from the timeout.
+         */
+        public void cancel()
+        {
+            Timeout timeout = _timeout;
+            if (timeout!=null)
+            {
+                synchronized (timeout._lock)
+                {
+                    unlink();
+                    _timestamp=0;
+                }
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        public boolean isExpired() { return _expired; }
+
+        /* ------------------------------------------------------------ */
+        public boolean isScheduled() { return _next!=this; }
     }
 }
@@ -0,0 +1,313 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2015 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/* ------------------------------------------------------------ */
+/**
+ * <p>Resolves host names away from the calling thread and caches the results.</p>
+ * <p>Lookups are performed by a {@link Resolver} on a {@link ThreadPool}, and concurrent
+ * lookups of the same host share a single query. Addresses are cached for the TTL and
+ * failures for the negative TTL.</p>
+ */
+public class HostResolver
+{
+    /* ------------------------------------------------------------ */
+    /**
+     * Performs the actual, blocking, lookup.
+     */
+    public interface Resolver
+    {
+        /**
+         * @param host the host name or address literal
+         * @return the addresses of the host, in order of preference
+         * @throws UnknownHostException if the host cannot be resolved
+         */
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Receives the result of {@link HostResolver#resolve(String, Callback)}.
+     */
+    public interface Callback
+    {
+        void resolved(InetAddress[] addresses);
+
+        void failed(UnknownHostException x);
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Resolves with {@link InetAddress#getAllByName(String)} */
+    public static final Resolver SYSTEM = new Resolver()
+    {
+        public InetAddress[] resolve(String host) throws UnknownHostException
+        {
+            return InetAddress.getAllByName(host);
+        }
+    };
+
+    private static final int __PURGE_SIZE = 64;
+
+    private final Map<String,Entry> _cache = new HashMap<String,Entry>();
+    private final ThreadPool _threadPool;
+    private volatile Resolver _resolver = SYSTEM;
+    private volatile long _ttl = 60000;
+    private volatile long _negativeTtl = 5000;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param threadPool the pool the lookups are run on
+     */
+    public HostResolver(ThreadPool threadPool)
+    {
+        _threadPool = threadPool;
+    }
+
+    /* ------------------------------------------------------------ */
+    public Resolver getResolver()
+    {
+        return _resolver;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param resolver the resolver to use for lookups, or null for {@link #SYSTEM}
+     */
+    public void setResolver(Resolver resolver)
+    {
+        _resolver = resolver == null ? SYSTEM : resolver;
+        clear();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return how long resolved addresses are cached, in ms
+     */
+    public long getTtl()
+    {
+        return _ttl;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param ttl how long resolved addresses are cached, in ms, or 0 not to cache them
+     */
+    public void setTtl(long ttl)
+    {
+        _ttl = ttl;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return how long failed lookups are cached, in ms
+     */
+    public long getNegativeTtl()
+    {
+        return _negativeTtl;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param negativeTtl how long failed lookups are cached, in ms, or 0 not to cache them
+     */
+    public void setNegativeTtl(long negativeTtl)
+    {
+        _negativeTtl = negativeTtl;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Forget all cached results. Lookups in progress still complete.
+     */
+    public void clear()
+    {
+        synchronized (_cache)
+        {
+            Iterator<Entry> i = _cache.values().iterator();
+            while (i.hasNext())
+                if (i.next()._waiters == null)
+                    i.remove();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Resolves a host. A cached result is passed to the callback on the calling
+     * thread, otherwise the callback is called from the thread pool.</p>
+     *
+     * @param host the host name or address literal
+     * @param callback the callback to notify
+     */
+    public void resolve(String host, Callback callback)
+    {
+        Entry entry;
+        boolean lookup = false;
+        synchronized (_cache)
+        {
+            long now = System.currentTimeMillis();
+            entry = _cache.get(host);
+            if (entry == null || entry._waiters == null && entry._expires <= now)
+            {
+                if (_cache.size() >= __PURGE_SIZE)
+                    purge(now);
+                entry = new Entry();
+                _cache.put(host, entry);
+                lookup = true;
+            }
+            if (entry._waiters != null)
+            {
+                entry._waiters.add(callback);
+                callback = null;
+            }
+        }
+
+        if (callback != null)
+            entry.notify(callback);
+        else if (lookup && !_threadPool.dispatch(new Lookup(host, entry)))
+            complete(host, entry, null, new UnknownHostException("Cannot dispatch lookup of " + host));
+    }
+
+    /* ------------------------------------------------------------ */
+    private void purge(long now)
+    {
+        Iterator<Entry> i = _cache.values().iterator();
+        while (i.hasNext())
+        {
+            Entry entry = i.next();
+            if (entry._waiters == null && entry._expires <= now)
+                i.remove();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void complete(String host, Entry entry, InetAddress[] addresses, UnknownHostException failure)
+    {
+        List<Callback> waiters;
+        synchronized (_cache)
+        {
+            long ttl = failure == null ? _ttl : _negativeTtl;
+            entry._addresses = addresses;
+            entry._failure = failure;
+            entry._expires = System.currentTimeMillis() + ttl;
+            waiters = entry._waiters;
+            entry._waiters = null;
+            if (ttl <= 0 && _cache.get(host) == entry)
+                _cache.remove(host);
+        }
+
+        for (Callback callback : waiters)
+            entry.notify(callback);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Orders addresses for connecting as RFC 8305 section 4 suggests: the address families
+     * alternate, starting with the family of the first address.</p>
+     *
+     * @param addresses the addresses in order of preference
+     * @return the addresses with the families interleaved
+     */
+    public static InetAddress[] interleave(InetAddress[] addresses)
+    {
+        if (addresses.length < 3)
+            return addresses;
+
+        List<InetAddress> first = new ArrayList<InetAddress>();
+        List<InetAddress> second = new ArrayList<InetAddress>();
+        boolean v6 = addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses)
+            (address instanceof Inet6Address == v6 ? first : second).add(address);
+
+        InetAddress[] result = new InetAddress[addresses.length];
+        int n = 0;
+        for (int i = 0; n < result.length; i++)
+        {
+            if (i < first.size())
+                result[n++] = first.get(i);
+            if (i < second.size())
+                result[n++] = second.get(i);
+        }
+        return result;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class Entry
+    {
+        /** The callbacks waiting for the lookup, or null once it has completed */
+        List<Callback> _waiters = new ArrayList<Callback>(2);
+        InetAddress[] _addresses;
+        UnknownHostException _failure;
+        long _expires;
+
+        void notify(Callback callback)
+        {
+            if (_failure != null)
+                callback.failed(_failure);
+            else
+                callback.resolved(_addresses);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private class Lookup implements Runnable
+    {
+        private final String _host;
+        private final Entry _entry;
+
+        Lookup(String host, Entry entry)
+        {
+            _host = host;
+            _entry = entry;
+        }
+
+        public void run()
+        {
+            InetAddress[] addresses = null;
+            UnknownHostException failure = null;
+            try
+            {
+                addresses = _resolver.resolve(_host);
+                if (addresses == null || addresses.length == 0)
+                    failure = new UnknownHostException(_host);
+            }
+            catch (UnknownHostException x)
+            {
+                failure = x;
+            }
+            catch (RuntimeException x)
+            {
+                failure = new UnknownHostException(_host + ": " + x);
+            }
+            complete(_host, _entry, failure == null ? addresses : null, failure);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2015 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+package org.eclipse.jetty.websocket;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/* ------------------------------------------------------------ */
+/** Applies the 4 byte mask of a frame to its payload, in place.
+ * <p>
+ * Masking and unmasking are the same XOR. Runs of 8 bytes are XORed as a long
+ * through a ByteBuffer view of the array, with the mask repeated twice and rotated
+ * to the current phase. The bytes before the first one aligned on 8 in memory, and
+ * those after the last whole long, are XORed one at a time.
+ * <p>
+ * The view is kept for as long as the same array is masked, so a Masker is owned by
+ * a single generator or parser and is not thread safe.
+ */
+public class Masker
+{
+    /** Payloads shorter than this are not worth the word loop */
+    private static final int __MIN_WORDS=16;
+
+    /** The offset in memory of the first element of a byte[] from the start of the array */
+    private static final int __BASE_OFFSET=getBaseOffset();
+
+    private ByteBuffer _view;
+
+    /* ------------------------------------------------------------ */
+    private static int getBaseOffset()
+    {
+        try
+        {
+            Class<?> unsafeClass=Class.forName("sun.misc.Unsafe");
+            Field field;
+            try
+            {
+                field=unsafeClass.getDeclaredField("theUnsafe");
+            }
+            catch (NoSuchFieldException e)
+            {
+                // Older Android versions
+                field=unsafeClass.getDeclaredField("THE_ONE");
+            }
+            field.setAccessible(true);
+            Object unsafe=field.get(null);
+            return (Integer)unsafeClass.getMethod("arrayBaseOffset",Class.class).invoke(unsafe,byte[].class);
+        }
+        catch (Throwable e)
+        {
+            // Only the speed depends on it
+            return 0;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param data the payload to mask or unmask in place
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @param mask the 4 byte mask
+     * @param phase the index in the mask of the byte to apply to the first byte
+     * @return the phase for the byte that follows
+     */
+    public int mask(byte[] data, int offset, int length, byte[] mask, int phase)
+    {
+        int i=offset;
+        final int end=offset+length;
+        phase&=3;
+
+        if (length>=__MIN_WORDS)
+        {
+            // head, up to the first byte aligned on 8 in memory
+            while (((__BASE_OFFSET+i)&7)!=0)
+                data[i++]^=mask[phase++&3];
+            phase&=3;
+
+            long word=0;
+            for (int k=0;k<8;k++)
+                word=(word<<8)|(mask[(phase+k)&3]&0xff);
+
+            ByteBuffer view=_view;
+            if (view==null || view.array()!=data)
+                _view=view=ByteBuffer.wrap(data);
+
+            // 8 bytes is two whole masks, so the phase is the same after each long
+            final int words=end-((end-i)&7);
+            for (;i<words;i+=8)
+                view.putLong(i,view.getLong(i)^word);
+        }
+
+        // tail
+        while (i<end)
+            data[i++]^=mask[phase++&3];
+        return phase&3;
+    }
+}
@@ -152,6 +152,7 @@ public class PerMessageDeflateExtension implements Extension {
     private FrameConnection _connection;
     private FrameHandler _inbound;
     private WebSocketGenerator _outbound;
+    private WebSocketMetrics _metrics;
     private Zlib _zlib;
     private String _parameters;
     private boolean _compressed;
@@ -180,6 +181,9 @@ public class PerMessageDeflateExtension implements Extension {
                     } else {
                         buffer = _zlib.decompress(array, offset, length);
                     }
+                    if (_metrics != null) {
+                        _metrics.onInflate(length, buffer.length);
+                    }
                     _inbound.onFrame(flags, opcode, buffer, 0, buffer.length);
                 } catch (DataFormatException e) {
                     __log.warn(e);
@@ -208,9 +212,14 @@ public class PerMessageDeflateExtension implements Extension {
 
     @Override
     public void addFrame(byte flags, byte opcode, byte[] content, int offset, int length) throws IOException {
-        if (opcode == WebSocketConnectionRFC6455.OP_TEXT || opcode == WebSocketConnectionRFC6455.OP_BINARY) {
+        // Each message is compressed on its own, so one sent in fragments is sent uncompressed
+        if ((opcode == WebSocketConnectionRFC6455.OP_TEXT || opcode == WebSocketConnectionRFC6455.OP_BINARY)
+                && WebSocketConnectionRFC6455.isLastFrame(flags)) {
             if (_zlib.isCompressible()) {
                 byte[] compressed = _zlib.compress(content, offset, length);
+                if (_metrics != null) {
+                    _metrics.onDeflate(length, compressed.length);
+                }
                 _outbound.addFrame((byte) (flags | 0x04), opcode, compressed, 0, compressed.length);
                 return;
             }
@@ -295,6 +304,7 @@ public class PerMessageDeflateExtension implements Extension {
     @Override
     public void bind(FrameConnection connection, FrameHandler inbound, WebSocketGenerator outbound) {
         _connection = connection;
+        _metrics = connection.getMetrics();
         _inbound = inbound;
         _outbound = outbound;
     }
@@ -19,6 +19,7 @@
 package org.eclipse.jetty.websocket;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * WebSocket Interface.
@@ -69,6 +70,38 @@ public interface WebSocket
         void onMessage(byte[] data, int offset, int length);
     }
 
+    /**
+     * A nested WebSocket interface for receiving messages in pieces as their frames arrive, rather than aggregated.
+     * Only messages that do not arrive in a single frame are offered, others are passed to
+     * {@link OnTextMessage} or {@link OnBinaryMessage} as usual.
+     */
+    interface OnMessageStream extends WebSocket
+    {
+        /**
+         * Called when the first fragment of a message that is not a single frame has been received.
+         * @param opcode The opcode of the message
+         * @return true to receive the message through {@link #onMessageFragment(byte[], int, int, long)} and
+         * {@link #onMessageEnd(long)}, false to have it aggregated as usual
+         */
+        boolean onMessageStart(byte opcode);
+
+        /**
+         * Called with each piece of a streamed message, starting with the first.
+         * Text is passed as UTF-8 bytes, and a piece may end within a character. The data is only valid during the call.
+         * @param data
+         * @param offset
+         * @param length
+         * @param position The position of the piece within the message
+         */
+        void onMessageFragment(byte[] data, int offset, int length, long position);
+
+        /**
+         * Called when the last fragment of a streamed message has been received.
+         * @param length The length of the message
+         */
+        void onMessageEnd(long length);
+    }
+
     /**
      * A nested WebSocket interface for receiving control messages
      */
@@ -118,6 +151,18 @@ public interface WebSocket
         void sendMessage(String data) throws IOException;
         void sendMessage(byte[] data, int offset, int length) throws IOException;
 
+        /**
+         * Send several messages in order, with a single write where possible.
+         * @param messages Each element is a String for a text message or a byte[] for a binary message
+         * @throws IOException
+         */
+        void sendMessages(List<?> messages) throws IOException;
+
+        /**
+         * @return the counters of this connection
+         */
+        WebSocketMetrics getMetrics();
+
         /** 
          * Close the connection with normal close code.
          */
@@ -257,6 +302,12 @@ public interface WebSocket
          */
         boolean isAllowFrameFragmentation();
 
+        /**
+         * @return True if the connection was closed by a close frame from the peer, or by the peer going away,
+         * rather than closed from this side.
+         */
+        boolean isClosedByPeer();
+
         /** Send a control frame
          * @param control
          * @param data
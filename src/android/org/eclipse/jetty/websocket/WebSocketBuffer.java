@@ -19,219 +19,111 @@
 package org.eclipse.jetty.websocket;
 
 import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.util.ArrayList;
 
 import org.eclipse.jetty.io.Buffer;
 
 /**
  * WebSocketBuffer
  *
+ * Reassembles a fragmented message in a chain of segments taken from the buffer pool.
+ * No segment is taken until the first fragment is appended, and the segments grow
+ * with the message so that a large one needs few of them. The message is copied once,
+ * into an array of its exact length, when it is complete. Afterwards the segments are
+ * returned to the pool, except for up to the high-water mark kept for the next message.
+ *
  * Copyright (c) 2015 KNOWLEDGECODE
  */
-class WebSocketBuffer implements Buffer {
-
-    private byte[] _buffer;
-    private int _index;
-    private int _capacity;
-
-    public WebSocketBuffer(final int capacity) {
-        _buffer = new byte[capacity];
-        _capacity = capacity;
-    }
-
-    public WebSocketBuffer append(final byte[] array, final int offset, final int length) {
-        if ((_index += length) > _capacity) {
-            _buffer = Arrays.copyOf(_buffer, (_capacity = Math.max(_capacity << 1, _index)));
+class WebSocketBuffer {
+
+    private final WebSocketBuffers _buffers;
+    private final ArrayList<Buffer> _segments = new ArrayList<Buffer>();
+    private final int _highWater;
+    private int _length;
+
+    /**
+     * Constructor
+     *
+     * @param buffers the pool the segments are taken from
+     * @param highWater the number of bytes of segments kept between messages
+     */
+    public WebSocketBuffer(final WebSocketBuffers buffers, final int highWater) {
+        _buffers = buffers;
+        _highWater = highWater;
+    }
+
+    public synchronized WebSocketBuffer append(final byte[] array, int offset, int length) {
+        _length += length;
+        for (int i = 0; length > 0; i++) {
+            Buffer segment;
+
+            if (i < _segments.size()) {
+                segment = _segments.get(i);
+                if (segment.space() == 0) {
+                    continue;
+                }
+            } else {
+                // Double the capacity with each segment, within the largest size the pool keeps
+                int size = Math.max(_buffers.getBufferSize(), Math.min(_length, _buffers.getBufferPool().getMaxSize()));
+                segment = _buffers.getBuffer(size);
+                _segments.add(segment);
+            }
+            int n = segment.put(array, offset, length);
+            offset += n;
+            length -= n;
         }
-        System.arraycopy(array, offset, _buffer, _index - length, length);
         return this;
     }
 
-    @Override
-    public byte[] array() {
-        return _buffer;
+    public synchronized int length() {
+        return _length;
     }
 
-    @Override
-    public byte[] asArray() {
-        return Arrays.copyOf(_buffer, _index);
-    }
-
-    @Override
-    public Buffer buffer() {
-        return null;
-    }
-
-    @Override
-    public Buffer asMutableBuffer() {
-        return null;
-    }
+    /**
+     * @return the message in an array of its exact length
+     */
+    public synchronized byte[] toArray() {
+        byte[] array = new byte[_length];
+        int offset = 0;
 
-    @Override
-    public int capacity() {
-        return _capacity;
-    }
-
-    @Override
-    public int space() {
-        return _capacity - _index;
-    }
-
-    @Override
-    public void clear() {
-        _index = 0;
-    }
-
-    @Override
-    public void compact() {
-    }
-
-    @Override
-    public byte get() {
-        return 0;
-    }
-
-    @Override
-    public int get(byte[] b, int offset, int length) {
-        return 0;
-    }
-
-    @Override
-    public Buffer get(int length) {
-        return null;
-    }
-
-    @Override
-    public int getIndex() {
-        return 0;
-    }
-
-    @Override
-    public boolean hasContent() {
-        return false;
-    }
-
-    @Override
-    public boolean equalsIgnoreCase(Buffer buffer) {
-        return false;
-    }
-
-    @Override
-    public boolean isImmutable() {
-        return false;
-    }
-
-    @Override
-    public boolean isReadOnly() {
-        return false;
-    }
-
-    @Override
-    public boolean isVolatile() {
-        return false;
-    }
-
-    @Override
-    public int length() {
-        return _index;
-    }
-
-    @Override
-    public void mark() {
-    }
-
-    @Override
-    public int markIndex() {
-        return 0;
-    }
-
-    @Override
-    public byte peek() {
-        return 0;
-    }
-
-    @Override
-    public byte peek(int index) {
-        return 0;
-    }
-
-    @Override
-    public int peek(int index, byte[] b, int offset, int length) {
-        return 0;
-    }
-
-    @Override
-    public int poke(int index, Buffer src) {
-        return 0;
-    }
-
-    @Override
-    public void poke(int index, byte b) {
-    }
-
-    @Override
-    public int poke(int index, byte[] b, int offset, int length) {
-        return 0;
-    }
-
-    @Override
-    public int put(Buffer src) {
-        return 0;
-    }
-
-    @Override
-    public void put(byte b) {
-    }
-
-    @Override
-    public int put(byte[] b, int offset, int length) {
-        return 0;
-    }
-
-    @Override
-    public int put(byte[] b) {
-        return 0;
-    }
-
-    @Override
-    public int putIndex() {
-        return 0;
-    }
-
-    @Override
-    public void setGetIndex(int newStart) {
+        for (Buffer segment : _segments) {
+            offset += segment.peek(segment.getIndex(), array, offset, segment.length());
+        }
+        return array;
     }
 
-    @Override
-    public void setMarkIndex(int newMark) {
+    public String toString(final Charset charset) {
+        return new String(toArray(), charset);
     }
 
-    @Override
-    public void setPutIndex(int newLimit) {
-    }
+    /**
+     * Empty the buffer, and return the segments above the high-water mark to the pool.
+     */
+    public synchronized void clear() {
+        int kept = 0;
 
-    @Override
-    public int skip(int n) {
-        return n;
-    }
-
-    @Override
-    public Buffer sliceFromMark() {
-        return null;
-    }
+        for (int i = 0; i < _segments.size(); ) {
+            Buffer segment = _segments.get(i);
 
-    @Override
-    public Buffer sliceFromMark(int length) {
-        return null;
-    }
-
-    @Override
-    public String toDetailString() {
-        return null;
+            if (kept + segment.capacity() <= _highWater) {
+                kept += segment.capacity();
+                segment.clear();
+                i++;
+            } else {
+                _buffers.returnBuffer(_segments.remove(i));
+            }
+        }
+        _length = 0;
     }
 
-    @Override
-    public String toString(Charset charset) {
-        return new String(_buffer, 0, _index, charset);
+    /**
+     * Return all the segments to the pool.
+     */
+    public synchronized void release() {
+        for (Buffer segment : _segments) {
+            _buffers.returnBuffer(segment);
+        }
+        _segments.clear();
+        _length = 0;
     }
 }
@@ -19,9 +19,7 @@
 package org.eclipse.jetty.websocket;
 
 import org.eclipse.jetty.io.Buffer;
-import org.eclipse.jetty.io.Buffers;
-import org.eclipse.jetty.io.Buffers.Type;
-import org.eclipse.jetty.io.ThreadLocalBuffers;
+import org.eclipse.jetty.io.BufferPool;
 
 /* ------------------------------------------------------------ */
 /** The WebSocket Buffer Pool.
@@ -30,28 +28,58 @@ import org.eclipse.jetty.io.ThreadLocalBuffers;
  * can access directly.   However the generator uses direct buffers
  * for the final output stage as they are filled in bulk and are more
  * efficient to flush.
+ * All buffers come from a {@link BufferPool} shared by every connection
+ * and thread, so that the memory they hold is bounded.
  */
 public class WebSocketBuffers
 {
-    final private Buffers _buffers;
+    final private BufferPool _pool;
+    final private int _bufferSize;
 
     public WebSocketBuffers(final int bufferSize)
     {
-        _buffers = new ThreadLocalBuffers(Type.DIRECT, bufferSize, Type.INDIRECT, bufferSize, Type.INDIRECT);
+        this(new BufferPool(),bufferSize);
+    }
+
+    public WebSocketBuffers(final BufferPool pool, final int bufferSize)
+    {
+        _pool = pool;
+        _bufferSize = bufferSize;
+    }
+
+    public BufferPool getBufferPool()
+    {
+        return _pool;
+    }
+
+    public int getBufferSize()
+    {
+        return _bufferSize;
     }
 
     public Buffer getBuffer()
     {
-        return _buffers.getBuffer();
+        return _pool.acquire(_bufferSize,false);
+    }
+
+    public Buffer getBuffer(int size)
+    {
+        return _pool.acquire(size,false);
     }
 
     public Buffer getDirectBuffer()
     {
-        return _buffers.getHeader();
+        return _pool.acquire(_bufferSize,true);
     }
 
     public void returnBuffer(Buffer buffer)
     {
-        _buffers.returnBuffer(buffer);
+        _pool.release(buffer);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{%d,%s}",getClass().getSimpleName(),_bufferSize,_pool);
     }
 }
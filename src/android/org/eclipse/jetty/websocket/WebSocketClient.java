@@ -19,12 +19,15 @@
 package org.eclipse.jetty.websocket;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ProtocolException;
 import java.net.SocketAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -34,9 +37,11 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Timeout;
 
 import android.text.TextUtils;
 
@@ -83,6 +88,19 @@ public class WebSocketClient
 {
     private final static Logger __log = org.eclipse.jetty.util.log.Log.getLogger(WebSocketClient.class.getName());
 
+    /** Receives the close of a prewarm connect that failed */
+    private final static WebSocket __PREWARM = new WebSocket()
+    {
+        public void onOpen(Connection connection)
+        {
+        }
+
+        public void onClose(int closeCode, String message)
+        {
+            __log.debug("prewarm failed {} {}",closeCode,message);
+        }
+    };
+
     private final WebSocketClientFactory _factory;
     private final Map<String,String> _cookies=new ConcurrentHashMap<String, String>();
     private final List<Extension> _extensions=new CopyOnWriteArrayList<Extension>();
@@ -92,6 +110,8 @@ public class WebSocketClient
     private int _maxIdleTime=-1;
     private int _maxTextMessageSize=-1;
     private int _maxBinaryMessageSize=-1;
+    private long _pingInterval;
+    private int _maxMissedPongs=2;
     private MaskGen _maskGen;
     private SocketAddress _bindAddress;
 
@@ -278,6 +298,44 @@ public class WebSocketClient
         _maxBinaryMessageSize = maxBinaryMessageSize;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The time between keepalive pings (in ms), or 0 if pings are not sent
+     */
+    public long getPingInterval()
+    {
+        return _pingInterval;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the time between keepalive pings. Pings measure the round trip time, and a connection
+     * whose peer stops answering them is closed with {@link WebSocketConnectionRFC6455#CLOSE_TIMEOUT}.
+     * @param pingInterval The time between keepalive pings (in ms), or 0 not to send pings
+     */
+    public void setPingInterval(long pingInterval)
+    {
+        _pingInterval = pingInterval;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of keepalive pings that may go unanswered before the connection is closed
+     */
+    public int getMaxMissedPongs()
+    {
+        return _maxMissedPongs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxMissedPongs The number of keepalive pings that may go unanswered before the connection is closed
+     */
+    public void setMaxMissedPongs(int maxMissedPongs)
+    {
+        _maxMissedPongs = maxMissedPongs;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @return user-agent
@@ -330,6 +388,8 @@ public class WebSocketClient
             Throwable cause = e.getCause();
             if (cause instanceof IOException)
                 throw (IOException)cause;
+            if (cause instanceof TimeoutException)
+                throw (TimeoutException)cause;
             if (cause instanceof Error)
                 throw (Error)cause;
             if (cause instanceof RuntimeException)
@@ -350,25 +410,65 @@ public class WebSocketClient
      * @see #open(URI, WebSocket, long, TimeUnit)
      */
     public Future<WebSocket.Connection> open(URI uri, WebSocket websocket) throws IOException
+    {
+        return connect(uri,websocket,0,TimeUnit.MILLISECONDS);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Asynchronously opens a websocket connection without blocking the calling thread.</p>
+     * <p>Unlike {@link #open(URI, WebSocket, long, TimeUnit)}, the connect timeout is driven by the
+     * selector of the factory: if the connection is not established within maxConnectTime, the
+     * channel is closed and {@link WebSocket#onClose(int, String)} is called. The connect may be
+     * deferred while {@link WebSocketClientFactory#getMaxConnecting()} connects are in flight;
+     * the time spent waiting counts towards maxConnectTime.</p>
+     * <p>The host is resolved by the {@link WebSocketClientFactory#getHostResolver() HostResolver}
+     * of the factory, and its addresses are raced as described in
+     * {@link WebSocketClientFactory#setConnectAttemptDelay(long)}. If the factory holds a warm
+     * connection to the same destination, it is used instead.</p>
+     *
+     * @param uri The URI to connect to.
+     * @param websocket The {@link WebSocket} instance to handle incoming events.
+     * @param maxConnectTime The interval to wait for a successful connection, or 0 for no timeout
+     * @param units the units of the maxConnectTime
+     * @return A {@link Future} to the {@link WebSocket.Connection}
+     * @throws IOException if the channel cannot be opened
+     */
+    public Future<WebSocket.Connection> connect(URI uri, WebSocket websocket, long maxConnectTime, TimeUnit units) throws IOException
+    {
+        return connect(uri,websocket,units.toMillis(maxConnectTime),false);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Opens a connection to be kept warm by the factory.</p>
+     *
+     * @param uri The URI to connect to.
+     * @param maxConnectTime The interval to wait for a successful connection, or 0 for no timeout
+     * @param units the units of the maxConnectTime
+     * @throws IOException if the channel cannot be opened
+     * @see WebSocketClientFactory#prewarm(URI, long)
+     */
+    public void prewarm(URI uri, long maxConnectTime, TimeUnit units) throws IOException
+    {
+        connect(uri,__PREWARM,units.toMillis(maxConnectTime),true);
+    }
+
+    private WebSocketFuture connect(URI uri, WebSocket websocket, long maxConnectTime, boolean prewarm) throws IOException
     {
         if (!_factory.isStarted())
             throw new IllegalStateException("Factory !started");
 
-        InetSocketAddress address = toSocketAddress(uri);
+        int port = toPort(uri);
 
+        WebSocketClientFactory.WarmConnection warm = prewarm ? null : _factory.claimWarmConnection(uri);
         SocketChannel channel = null;
         try
         {
-            channel = SocketChannel.open();
-            if (_bindAddress != null)
-                channel.socket().bind(_bindAddress);
-            channel.socket().setTcpNoDelay(true);
-
-            WebSocketFuture holder = new WebSocketFuture(websocket,uri,this,channel);
+            channel = warm == null ? newChannel() : warm.getChannel();
 
-            channel.configureBlocking(false);
-            channel.connect(address);
-            _factory.getSelectorManager().register(channel,holder);
+            WebSocketFuture holder = new WebSocketFuture(websocket,uri,this,channel,port,prewarm,warm);
+            _factory.connect(holder,maxConnectTime);
 
             return holder;
         }
@@ -390,7 +490,34 @@ public class WebSocketClient
         }
     }
 
+    private SocketChannel newChannel() throws IOException
+    {
+        SocketChannel channel = SocketChannel.open();
+        try
+        {
+            if (_bindAddress != null)
+                channel.socket().bind(_bindAddress);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            return channel;
+        }
+        catch (IOException e)
+        {
+            IO.close(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * Resolves the host of the URI on the calling thread.
+     * @see WebSocketClientFactory#getHostResolver()
+     */
     public static InetSocketAddress toSocketAddress(URI uri)
+    {
+        return new InetSocketAddress(uri.getHost(), toPort(uri));
+    }
+
+    static int toPort(URI uri)
     {
         String scheme = uri.getScheme();
         if (!("ws".equalsIgnoreCase(scheme) || "wss".equalsIgnoreCase(scheme)))
@@ -400,29 +527,252 @@ public class WebSocketClient
             throw new IllegalArgumentException("Bad WebSocket port: " + port);
         if (port < 0)
             port = "ws".equals(scheme) ? 80 : 443;
-
-        return new InetSocketAddress(uri.getHost(), port);
+        return port;
     }
 
     /* ------------------------------------------------------------ */
     /** The Future Websocket Connection.
      */
-    static class WebSocketFuture implements Future<WebSocket.Connection>
+    static class WebSocketFuture implements Future<WebSocket.Connection>, HostResolver.Callback
     {
         final WebSocket _websocket;
         final URI _uri;
         final WebSocketClient _client;
+        final int _port;
         final CountDownLatch _done = new CountDownLatch(1);
+        final AtomicBoolean _finished = new AtomicBoolean();
+        final Timeout.Task _timeoutTask = new ConnectTimeout();
+        final Timeout.Task _attemptTask = new NextAttempt();
+        final boolean _prewarm;
+        final WebSocketClientFactory.WarmConnection _warm;
+        final List<SocketChannel> _attempts = new ArrayList<SocketChannel>(2);
         ByteChannel _channel;
         WebSocketConnection _connection;
         Throwable _exception;
+        InetAddress[] _addresses;
+        int _nextAddress;
 
-        private WebSocketFuture(WebSocket websocket, URI uri, WebSocketClient client, ByteChannel channel)
+        private WebSocketFuture(WebSocket websocket, URI uri, WebSocketClient client, ByteChannel channel, int port,
+                boolean prewarm, WebSocketClientFactory.WarmConnection warm)
         {
             _websocket=websocket;
             _uri=uri;
             _client=client;
             _channel=channel;
+            _port=port;
+            _prewarm=prewarm;
+            _warm=warm;
+        }
+
+        /**
+         * Resolve the host, then start connecting to its addresses,
+         * or upgrade the warm connection this connect has claimed.
+         * Called by the factory once the connect has been admitted.
+         */
+        void start()
+        {
+            synchronized (this)
+            {
+                if (_channel==null)
+                    return;
+            }
+            if (_warm!=null)
+                _warm.handOff(this);
+            else
+                _client.getFactory().getHostResolver().resolve(_uri.getHost(),this);
+        }
+
+        boolean isPrewarm()
+        {
+            return _prewarm;
+        }
+
+        /**
+         * Called once a prewarm connect has been handed to the pool of the factory,
+         * which owns the channel from then on.
+         */
+        void parked()
+        {
+            try
+            {
+                synchronized (this)
+                {
+                    _channel=null;
+                }
+            }
+            finally
+            {
+                finish();
+                _done.countDown();
+            }
+        }
+
+        public void resolved(InetAddress[] addresses)
+        {
+            synchronized (this)
+            {
+                _addresses=HostResolver.interleave(addresses);
+            }
+            nextAttempt();
+        }
+
+        public void failed(UnknownHostException x)
+        {
+            handshakeFailed(x);
+        }
+
+        /**
+         * Start a non-blocking connect to the next address and register it with the selector.
+         * If there are more addresses, the next attempt is scheduled after the attempt delay.
+         */
+        void nextAttempt()
+        {
+            SocketChannel channel;
+            InetAddress address;
+            boolean more;
+            synchronized (this)
+            {
+                if (_channel==null || _addresses==null || _nextAddress>=_addresses.length)
+                    return;
+                channel=_nextAddress==0?(SocketChannel)_channel:null;
+                address=_addresses[_nextAddress++];
+                more=_nextAddress<_addresses.length;
+            }
+
+            try
+            {
+                if (channel==null)
+                    channel=_client.newChannel();
+                synchronized (this)
+                {
+                    if (_channel==null)
+                    {
+                        IO.close(channel);
+                        return;
+                    }
+                    _attempts.add(channel);
+                }
+
+                if (more)
+                {
+                    _attemptTask.cancel();
+                    _client.getFactory().getSelectorManager().scheduleTimeout(_attemptTask,_client.getFactory().getConnectAttemptDelay());
+                }
+                channel.connect(new InetSocketAddress(address,_port));
+                _client.getFactory().getSelectorManager().register(channel,this);
+            }
+            catch (IOException e)
+            {
+                attemptFailed(channel,e);
+            }
+            catch (RuntimeException e)
+            {
+                attemptFailed(channel,e);
+            }
+        }
+
+        /**
+         * Called when the connect of one of the attempts has completed.
+         * @return true if the channel is the first to connect, false if it should be closed
+         */
+        boolean attemptConnected(SocketChannel channel)
+        {
+            List<SocketChannel> losers;
+            synchronized (this)
+            {
+                if (_channel==null || !_attempts.remove(channel))
+                    return false;
+                _channel=channel;
+                _nextAddress=_addresses.length;
+                losers=new ArrayList<SocketChannel>(_attempts);
+                _attempts.clear();
+            }
+
+            _attemptTask.cancel();
+            for (SocketChannel loser : losers)
+                IO.close(loser);
+            return true;
+        }
+
+        /**
+         * Called when the connect of one of the attempts has failed.
+         * The next address is tried at once; the connect fails once all the addresses have failed.
+         */
+        void attemptFailed(SocketChannel channel, Throwable ex)
+        {
+            boolean last;
+            synchronized (this)
+            {
+                if (channel!=null && !_attempts.remove(channel) && channel!=_channel)
+                    return;
+                last=_attempts.isEmpty() && (_addresses==null || _nextAddress>=_addresses.length);
+            }
+
+            if (channel!=null)
+                IO.close(channel);
+            if (last)
+                handshakeFailed(ex);
+            else
+            {
+                _attemptTask.cancel();
+                nextAttempt();
+            }
+        }
+
+        /**
+         * Close the attempts that are still connecting.
+         */
+        private void closeAttempts()
+        {
+            List<SocketChannel> attempts;
+            synchronized (this)
+            {
+                attempts=new ArrayList<SocketChannel>(_attempts);
+                _attempts.clear();
+            }
+            for (SocketChannel attempt : attempts)
+                IO.close(attempt);
+        }
+
+        /**
+         * Abandon the connect if it has not completed yet.
+         */
+        void timeout()
+        {
+            try
+            {
+                ByteChannel channel=null;
+                synchronized (this)
+                {
+                    if (_connection==null && _exception==null && _channel!=null)
+                    {
+                        channel=_channel;
+                        _channel=null;
+                        _exception=new TimeoutException();
+                    }
+                }
+
+                if (channel!=null)
+                    closeChannel(channel,WebSocketConnectionRFC6455.CLOSE_NO_CLOSE,"timeout");
+            }
+            finally
+            {
+                finish();
+                _done.countDown();
+            }
+        }
+
+        /**
+         * Release the connect slot and cancel the connect timeout, once.
+         */
+        private void finish()
+        {
+            if (_finished.compareAndSet(false,true))
+            {
+                _timeoutTask.cancel();
+                _attemptTask.cancel();
+                _client.getFactory().connectFinished(this);
+            }
         }
 
         public void onConnection(WebSocketConnection connection)
@@ -448,10 +798,15 @@ public class WebSocketClient
                         ((WebSocket.OnFrame)_websocket).onHandshake((WebSocket.FrameConnection)con.getConnection());
 
                     _websocket.onOpen(con.getConnection());
+
+                    if (_client.getPingInterval() > 0 && con instanceof WebSocketConnectionRFC6455)
+                        ((WebSocketConnectionRFC6455)con).startKeepAlive(_client.getFactory().getSelectorManager(),
+                                _client.getPingInterval(), _client.getMaxMissedPongs());
                 }
             }
             finally
             {
+                finish();
                 _done.countDown();
             }
         }
@@ -481,6 +836,7 @@ public class WebSocketClient
             }
             finally
             {
+                finish();
                 _done.countDown();
             }
         }
@@ -558,6 +914,7 @@ public class WebSocketClient
             }
             finally
             {
+                finish();
                 _done.countDown();
             }
         }
@@ -611,7 +968,10 @@ public class WebSocketClient
             }
 
             if (channel!=null)
+            {
                 closeChannel(channel,WebSocketConnectionRFC6455.CLOSE_NO_CLOSE,"timeout");
+                finish();
+            }
             if (exception!=null)
                 throw new ExecutionException(exception);
             if (connection!=null)
@@ -619,8 +979,26 @@ public class WebSocketClient
             throw new TimeoutException();
         }
 
+        private class ConnectTimeout extends Timeout.Task implements Runnable
+        {
+            public void run()
+            {
+                timeout();
+            }
+        }
+
+        private class NextAttempt extends Timeout.Task implements Runnable
+        {
+            public void run()
+            {
+                nextAttempt();
+            }
+        }
+
         private void closeChannel(ByteChannel channel,int code, String message)
         {
+            closeAttempts();
+
             try
             {
                 _websocket.onClose(code,message);
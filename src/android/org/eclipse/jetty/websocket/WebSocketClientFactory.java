@@ -21,24 +21,36 @@ package org.eclipse.jetty.websocket;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.ProtocolException;
+import java.net.URI;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Random;
+import java.util.EventListener;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
 
 import org.eclipse.jetty.http.HttpParser;
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.AsyncEndPoint;
 import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.BufferPool;
 import org.eclipse.jetty.io.Buffers;
 import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.eclipse.jetty.io.ConnectedEndPoint;
@@ -46,6 +58,7 @@ import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.SimpleBuffers;
 import org.eclipse.jetty.io.nio.AsyncConnection;
+import org.eclipse.jetty.io.nio.IndirectNIOBuffer;
 import org.eclipse.jetty.io.nio.SelectChannelEndPoint;
 import org.eclipse.jetty.io.nio.SelectorManager;
 import org.eclipse.jetty.io.nio.SslConnection;
@@ -55,6 +68,7 @@ import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.ThreadPool;
+import org.eclipse.jetty.util.thread.Timeout;
 
 import android.text.TextUtils;
 import android.util.Base64;
@@ -78,11 +92,26 @@ public class WebSocketClientFactory extends AggregateLifeCycle
     private static final ByteArrayBuffer __PROTOCOL = new ByteArrayBuffer.CaseInsensitive("Sec-WebSocket-Protocol");
     private static final ByteArrayBuffer __EXTENSIONS = new ByteArrayBuffer.CaseInsensitive("Sec-WebSocket-Extensions");
     private final Queue<WebSocketConnection> connections = new ConcurrentLinkedQueue<WebSocketConnection>();
+    private final Queue<WebSocketClient.WebSocketFuture> _pendingConnects = new ConcurrentLinkedQueue<WebSocketClient.WebSocketFuture>();
+    private final List<WebSocketClient.WebSocketFuture> _sslWaiting = new ArrayList<WebSocketClient.WebSocketFuture>();
+    private final AtomicInteger _connecting = new AtomicInteger();
+    private final WebSocketMetrics _metrics = new WebSocketMetrics();
+    private final List<MetricsListener> _metricsListeners = new CopyOnWriteArrayList<MetricsListener>();
     private final SslContextFactory _sslContextFactory = new SslContextFactory();
     private final ThreadPool _threadPool;
     private final WebSocketClientSelector _selector;
+    private final HostResolver _hostResolver;
+    private final QueuedThreadPool _sslTaskPool;
     private MaskGen _maskGen;
     private WebSocketBuffers _buffers;
+    private volatile int _maxConnecting = -1;
+    private volatile long _connectAttemptDelay = 250;
+    private final List<WarmConnection> _warmConnections = new LinkedList<WarmConnection>();
+    private volatile int _maxWarmConnections = 4;
+    private volatile long _warmIdleTime = 30000;
+    private volatile CountDownLatch _sslReady = new CountDownLatch(1);
+    private volatile Exception _sslFailure;
+    private volatile SslPrewarm _sslPrewarm;
 
     /* ------------------------------------------------------------ */
     /**
@@ -128,7 +157,12 @@ public class WebSocketClientFactory extends AggregateLifeCycle
     public WebSocketClientFactory(ThreadPool threadPool, MaskGen maskGen, int bufferSize)
     {
         if (threadPool == null)
-            threadPool = new QueuedThreadPool();
+        {
+            // Threads are started as they are needed
+            QueuedThreadPool pool = new QueuedThreadPool();
+            pool.setMinThreads(1);
+            threadPool = pool;
+        }
         _threadPool = threadPool;
         addBean(_threadPool);
 
@@ -139,9 +173,16 @@ public class WebSocketClientFactory extends AggregateLifeCycle
         addBean(_maskGen);
 
         _selector = new WebSocketClientSelector();
+        _selector.setSelectSets(Runtime.getRuntime().availableProcessors());
         addBean(_selector);
 
-        addBean(_sslContextFactory);
+        _hostResolver = new HostResolver(_threadPool);
+
+        // Started in the background by doStart, see isSslReady
+        _sslTaskPool = new QueuedThreadPool();
+        _sslTaskPool.setName("wss-tasks");
+        _sslTaskPool.setMinThreads(1);
+        _sslTaskPool.setMaxThreads(2);
     }
 
     /* ------------------------------------------------------------ */
@@ -176,6 +217,175 @@ public class WebSocketClientFactory extends AggregateLifeCycle
         return _threadPool;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Get the BufferPool shared by all connections. Used to bound the memory held by buffers.
+     *
+     * @return The {@link BufferPool} instance.
+     */
+    public BufferPool getBufferPool()
+    {
+        return _buffers.getBufferPool();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Get the HostResolver. Used to configure how host names are resolved and cached.
+     *
+     * @return The {@link HostResolver} instance.
+     */
+    public HostResolver getHostResolver()
+    {
+        return _hostResolver;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the delay in ms before a connect to the next address of a host is started
+     * @see #setConnectAttemptDelay(long)
+     */
+    public long getConnectAttemptDelay()
+    {
+        return _connectAttemptDelay;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>When a host has several addresses, they are tried in turn without waiting for the
+     * previous connect to fail: the next one is started after this delay, and the first
+     * connect to succeed is used (RFC 8305, Happy Eyeballs).</p>
+     *
+     * @param delay the delay in ms, 250 by default
+     */
+    public void setConnectAttemptDelay(long delay)
+    {
+        _connectAttemptDelay = delay;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of warm connections kept at once
+     * @see #prewarm(URI, long)
+     */
+    public int getMaxWarmConnections()
+    {
+        return _maxWarmConnections;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxWarmConnections the maximum number of warm connections kept at once; when it is
+     * reached, the oldest is closed to make room. 0 disables {@link #prewarm(URI, long)}.
+     */
+    public void setMaxWarmConnections(int maxWarmConnections)
+    {
+        _maxWarmConnections = maxWarmConnections;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the time in ms a warm connection is kept before it is closed unused
+     */
+    public long getWarmIdleTime()
+    {
+        return _warmIdleTime;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param warmIdleTime the time in ms a warm connection is kept before it is closed unused
+     */
+    public void setWarmIdleTime(long warmIdleTime)
+    {
+        _warmIdleTime = warmIdleTime;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of warm connections currently kept
+     */
+    public int getWarmConnections()
+    {
+        synchronized (_warmConnections)
+        {
+            return _warmConnections.size();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Connects to the server of a URI ahead of time: the host is resolved, the TCP
+     * connection opened and, for wss, the TLS handshake performed. The connection is then
+     * kept for {@link #getWarmIdleTime()}, and a later connect to the same scheme, host and
+     * port takes it over and only has to perform the WebSocket upgrade.</p>
+     *
+     * @param uri the URI to connect to; only its scheme, host and port are used
+     * @param maxConnectTime the connect timeout in ms, or 0 for no timeout
+     * @throws IOException if the channel cannot be opened
+     */
+    public void prewarm(URI uri, long maxConnectTime) throws IOException
+    {
+        if (_maxWarmConnections > 0)
+            newWebSocketClient().prewarm(uri, maxConnectTime, TimeUnit.MILLISECONDS);
+    }
+
+    /* ------------------------------------------------------------ */
+    static String toWarmKey(URI uri)
+    {
+        return uri.getScheme().toLowerCase(Locale.ENGLISH) + "://" + uri.getHost().toLowerCase(Locale.ENGLISH) + ":" + WebSocketClient.toPort(uri);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Take a warm connection to the destination of a URI out of the pool.
+     *
+     * @param uri the URI to connect to
+     * @return the warm connection, or null if there is none
+     */
+    WarmConnection claimWarmConnection(URI uri)
+    {
+        String key = toWarmKey(uri);
+        WarmConnection claimed = null;
+        synchronized (_warmConnections)
+        {
+            for (Iterator<WarmConnection> i = _warmConnections.iterator(); i.hasNext();)
+            {
+                WarmConnection warm = i.next();
+                if (warm._key.equals(key) && warm._endp.isOpen())
+                {
+                    i.remove();
+                    claimed = warm;
+                    break;
+                }
+            }
+        }
+        if (claimed != null)
+            claimed._expiry.cancel();
+        return claimed;
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean removeWarmConnection(WarmConnection warm)
+    {
+        synchronized (_warmConnections)
+        {
+            return _warmConnections.remove(warm);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void closeWarmConnections()
+    {
+        List<WarmConnection> warm;
+        synchronized (_warmConnections)
+        {
+            warm = new ArrayList<WarmConnection>(_warmConnections);
+            _warmConnections.clear();
+        }
+        for (WarmConnection connection : warm)
+            connection.close();
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @return the shared mask generator, or null if no shared mask generator is used
@@ -186,11 +396,114 @@ public class WebSocketClientFactory extends AggregateLifeCycle
         return _maskGen;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of connects that may be in flight at once, or -1 for no limit
+     * @see #setMaxConnecting(int)
+     */
+    public int getMaxConnecting()
+    {
+        return _maxConnecting;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Limits the number of connects (TCP connect plus upgrade handshake) that may be in flight at once.
+     * Further connects are queued and started as earlier ones complete or fail.</p>
+     *
+     * @param maxConnecting the maximum number of in-flight connects, or -1 for no limit
+     * @see #getMaxConnecting()
+     */
+    public void setMaxConnecting(int maxConnecting)
+    {
+        _maxConnecting = maxConnecting;
+        startPendingConnects();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of connects currently in flight
+     */
+    public int getConnecting()
+    {
+        return _connecting.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Starts the thread pool and the selector. The SslContextFactory, whose
+     * initialization is comparatively slow, is started in the background on the thread
+     * pool so that plain connects need not wait for it.</p>
+     *
+     * @see #isSslReady()
+     */
+    @Override
+    protected void doStart() throws Exception
+    {
+        long start = System.nanoTime();
+        CountDownLatch ready = new CountDownLatch(1);
+        _sslFailure = null;
+        _sslReady = ready;
+        try
+        {
+            super.doStart();
+        }
+        catch (Exception e)
+        {
+            _sslFailure = e;
+            ready.countDown();
+            throw e;
+        }
+
+        SslPrewarm prewarm = new SslPrewarm(ready);
+        _sslPrewarm = prewarm;
+        if (!_threadPool.dispatch(prewarm))
+            prewarm.run();
+        __log.debug("{} started in {}ms", this, (System.nanoTime() - start) / 1000000);
+    }
+
     @Override
     protected void doStop() throws Exception
     {
+        List<WebSocketClient.WebSocketFuture> waiting;
+        synchronized (_sslWaiting)
+        {
+            waiting = new ArrayList<WebSocketClient.WebSocketFuture>(_sslWaiting);
+        }
+        for (WebSocketClient.WebSocketFuture pending : waiting)
+            pending.cancel(false);
+        for (WebSocketClient.WebSocketFuture pending : _pendingConnects)
+            pending.cancel(false);
         closeConnections();
+        closeWarmConnections();
         super.doStop();
+
+        // The pool drops the jobs it has not run when it stops, so only wait for a prewarm that has begun
+        SslPrewarm prewarm = _sslPrewarm;
+        if (prewarm != null)
+            prewarm.cancel();
+        _sslReady.await();
+        _sslTaskPool.stop();
+        _sslContextFactory.stop();
+        _buffers.getBufferPool().clear();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Checks, without waiting, that the SslContextFactory started by {@link #doStart()} is ready.</p>
+     *
+     * @return true if it is ready, false if it is still starting
+     * @throws IOException if it failed to start
+     */
+    public boolean isSslReady() throws IOException
+    {
+        if (_sslReady.getCount() > 0)
+            return false;
+
+        Exception failure = _sslFailure;
+        if (failure != null)
+            throw new IOException("SSL initialization failed", failure);
+        return true;
     }
 
     /* ------------------------------------------------------------ */
@@ -205,13 +518,26 @@ public class WebSocketClientFactory extends AggregateLifeCycle
         return new WebSocketClient(this);
     }
 
-    protected SSLEngine newSslEngine(SocketChannel channel) throws IOException
+    /**
+     * Create a client engine for the host named in the URI, so that SNI carries the
+     * host name and cached sessions are found again when the host changes address.
+     *
+     * @param peerHost the host name of the server
+     * @param peerPort the port of the server
+     * @return the engine, with its handshake begun
+     * @throws IOException if the handshake cannot be begun
+     */
+    protected SSLEngine newSslEngine(String peerHost, int peerPort) throws IOException
     {
+        // Called on the selector thread, which must not wait for the SSL context
+        if (!isSslReady())
+            throw new IOException("SSL not initialized");
+
         SSLEngine sslEngine;
-        if (channel != null)
+        if (peerHost != null)
         {
-            String peerHost = channel.socket().getInetAddress().getHostAddress();
-            int peerPort = channel.socket().getPort();
+            if (peerHost.startsWith("[") && peerHost.endsWith("]"))
+                peerHost = peerHost.substring(1, peerHost.length() - 1);
             sslEngine = _sslContextFactory.newSslEngine(peerHost, peerPort);
         }
         else
@@ -224,14 +550,204 @@ public class WebSocketClientFactory extends AggregateLifeCycle
         return sslEngine;
     }
 
+    /**
+     * Admit a connect, scheduling its timeout on the selector.
+     * A secure connect made while the SSL context is still starting waits, without
+     * taking a slot, until {@link SslPrewarm} has finished.
+     *
+     * @param future the connect to start
+     * @param maxConnectTime the connect timeout in ms, or 0 for no timeout
+     */
+    protected void connect(WebSocketClient.WebSocketFuture future, long maxConnectTime)
+    {
+        if (maxConnectTime > 0)
+            _selector.scheduleTimeout(future._timeoutTask, maxConnectTime);
+        if ("wss".equalsIgnoreCase(future.getURI().getScheme()))
+        {
+            synchronized (_sslWaiting)
+            {
+                if (_sslReady.getCount() > 0)
+                {
+                    _sslWaiting.add(future);
+                    return;
+                }
+            }
+            Exception failure = _sslFailure;
+            if (failure != null)
+            {
+                // Queued first, so that finishing it does not give back a slot it never took
+                _pendingConnects.add(future);
+                future.handshakeFailed(new IOException("SSL initialization failed", failure));
+                return;
+            }
+        }
+        _pendingConnects.add(future);
+        startPendingConnects();
+    }
+
+    /**
+     * Start the connects that were waiting for the SSL context, or fail them if it did not start.
+     */
+    private void startSslWaiting()
+    {
+        List<WebSocketClient.WebSocketFuture> waiting;
+        synchronized (_sslWaiting)
+        {
+            waiting = new ArrayList<WebSocketClient.WebSocketFuture>(_sslWaiting);
+            _sslWaiting.clear();
+        }
+        if (waiting.isEmpty())
+            return;
+
+        Exception failure = _sslFailure;
+        for (WebSocketClient.WebSocketFuture future : waiting)
+        {
+            _pendingConnects.add(future);
+            if (failure != null)
+                future.handshakeFailed(new IOException("SSL initialization failed", failure));
+        }
+        startPendingConnects();
+    }
+
+    /**
+     * Called once for every admitted connect when it succeeds, fails, times out or is cancelled.
+     *
+     * @param future the finished connect
+     */
+    protected void connectFinished(WebSocketClient.WebSocketFuture future)
+    {
+        // A connect that never left the queues never took a slot
+        boolean waiting;
+        synchronized (_sslWaiting)
+        {
+            waiting = _sslWaiting.remove(future);
+        }
+        if (!waiting && !_pendingConnects.remove(future))
+            _connecting.decrementAndGet();
+        startPendingConnects();
+    }
+
+    private void startPendingConnects()
+    {
+        while (!_pendingConnects.isEmpty())
+        {
+            int connecting = _connecting.get();
+            if (_maxConnecting > 0 && connecting >= _maxConnecting)
+                return;
+            if (!_connecting.compareAndSet(connecting, connecting + 1))
+                continue;
+
+            WebSocketClient.WebSocketFuture next = _pendingConnects.poll();
+            if (next == null)
+                _connecting.decrementAndGet();
+            else
+                next.start();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Starts the SslContextFactory and the pool for its delegated tasks.
+     */
+    private class SslPrewarm implements Runnable
+    {
+        private final CountDownLatch _ready;
+        private final AtomicBoolean _claimed = new AtomicBoolean();
+
+        SslPrewarm(CountDownLatch ready)
+        {
+            _ready = ready;
+        }
+
+        /**
+         * Release the connects waiting for the SSL context, if the prewarm has not begun.
+         * Once it has begun, it counts the latch down itself when it is done.
+         */
+        void cancel()
+        {
+            if (!_claimed.compareAndSet(false, true))
+                return;
+            _sslFailure = new IllegalStateException("Stopped before SSL initialization");
+            synchronized (_sslWaiting)
+            {
+                _ready.countDown();
+            }
+            startSslWaiting();
+        }
+
+        public void run()
+        {
+            if (!_claimed.compareAndSet(false, true))
+                return;
+            long start = System.nanoTime();
+            try
+            {
+                _sslContextFactory.start();
+                _sslTaskPool.start();
+                __log.debug("{} ready in {}ms", _sslContextFactory, (System.nanoTime() - start) / 1000000);
+            }
+            catch (Exception e)
+            {
+                __log.warn(e);
+                _sslFailure = e;
+            }
+            finally
+            {
+                synchronized (_sslWaiting)
+                {
+                    _ready.countDown();
+                }
+                startSslWaiting();
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the totals of all the connections made by this factory
+     */
+    public WebSocketMetrics getMetrics()
+    {
+        return _metrics;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of times the selectors have been woken up
+     */
+    public long getSelectorWakeups()
+    {
+        return _selector.getWakeups();
+    }
+
+    /* ------------------------------------------------------------ */
+    public void addMetricsListener(MetricsListener listener)
+    {
+        _metricsListeners.add(listener);
+    }
+
+    /* ------------------------------------------------------------ */
+    public void removeMetricsListener(MetricsListener listener)
+    {
+        _metricsListeners.remove(listener);
+    }
+
     protected boolean addConnection(WebSocketConnection connection)
     {
-        return isRunning() && connections.add(connection);
+        if (!isRunning() || !connections.add(connection))
+            return false;
+        for (MetricsListener listener : _metricsListeners)
+            listener.onOpened(connection.getConnection(), connection.getConnection().getMetrics());
+        return true;
     }
 
     protected boolean removeConnection(WebSocketConnection connection)
     {
-        return connections.remove(connection);
+        if (!connections.remove(connection))
+            return false;
+        for (MetricsListener listener : _metricsListeners)
+            listener.onClosed(connection.getConnection(), connection.getConnection().getMetrics());
+        return true;
     }
 
     protected void closeConnections()
@@ -240,6 +756,18 @@ public class WebSocketClientFactory extends AggregateLifeCycle
             connection.shutdown();
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Listener notified when a connection of the factory opens and closes,
+     * with the metrics of that connection.
+     */
+    public interface MetricsListener extends EventListener
+    {
+        void onOpened(WebSocket.Connection connection, WebSocketMetrics metrics);
+
+        void onClosed(WebSocket.Connection connection, WebSocketMetrics metrics);
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * WebSocket Client Selector Manager
@@ -265,8 +793,26 @@ public class WebSocketClientFactory extends AggregateLifeCycle
             // Detect if it is SSL, and wrap the connection if so
             if ("wss".equals(holder.getURI().getScheme()))
             {
-                SSLEngine sslEngine = newSslEngine(channel);
-                SslConnection sslConnection = new SslConnection(sslEngine, endPoint);
+                final long started = System.currentTimeMillis();
+                SSLEngine sslEngine;
+                try
+                {
+                    sslEngine = newSslEngine(holder.getURI().getHost(), channel.socket().getPort());
+                }
+                catch (IOException e)
+                {
+                    holder.handshakeFailed(e);
+                    throw e;
+                }
+                SslConnection sslConnection = new SslConnection(sslEngine, endPoint)
+                {
+                    @Override
+                    protected void onHandshook(SSLSession session)
+                    {
+                        _sslContextFactory.onHandshake(session, started, getHandshakeNanos(), getTaskNanos());
+                    }
+                };
+                sslConnection.setTaskPool(_sslTaskPool);
                 endPoint.setConnection(sslConnection);
                 endPoint = sslConnection.getSslEndPoint();
             }
@@ -281,9 +827,29 @@ public class WebSocketClientFactory extends AggregateLifeCycle
         public AsyncConnection newConnection(SocketChannel channel, AsyncEndPoint endpoint, Object attachment)
         {
             WebSocketClient.WebSocketFuture holder = (WebSocketClient.WebSocketFuture)attachment;
+            if (holder.isPrewarm())
+                return park(channel, endpoint, holder);
             return new HandshakeConnection(endpoint, holder);
         }
 
+        private AsyncConnection park(SocketChannel channel, AsyncEndPoint endpoint, WebSocketClient.WebSocketFuture holder)
+        {
+            WarmConnection warm = new WarmConnection(channel, endpoint, toWarmKey(holder.getURI()));
+            WarmConnection evicted = null;
+            synchronized (_warmConnections)
+            {
+                if (_warmConnections.size() >= Math.max(1, _maxWarmConnections))
+                    evicted = _warmConnections.remove(0);
+                _warmConnections.add(warm);
+            }
+            if (evicted != null)
+                evicted.close();
+
+            scheduleTimeout(warm._expiry, _warmIdleTime);
+            holder.parked();
+            return warm;
+        }
+
         @Override
         protected void endPointOpened(SelectChannelEndPoint endpoint)
         {
@@ -302,6 +868,14 @@ public class WebSocketClientFactory extends AggregateLifeCycle
             endpoint.getConnection().onClose();
         }
 
+        @Override
+        protected boolean connectionEstablished(SocketChannel channel, Object attachment)
+        {
+            if (!(attachment instanceof WebSocketClient.WebSocketFuture))
+                return super.connectionEstablished(channel, attachment);
+            return ((WebSocketClient.WebSocketFuture)attachment).attemptConnected(channel);
+        }
+
         @Override
         protected void connectionFailed(SocketChannel channel, Throwable ex, Object attachment)
         {
@@ -312,7 +886,7 @@ public class WebSocketClientFactory extends AggregateLifeCycle
                 __log.debug(ex);
                 WebSocketClient.WebSocketFuture future = (WebSocketClient.WebSocketFuture)attachment;
 
-                future.handshakeFailed(ex);
+                future.attemptFailed(channel, ex);
             }
         }
     }
@@ -587,7 +1161,8 @@ public class WebSocketClientFactory extends AggregateLifeCycle
                     _protocol,
                     _future.getExtensions(),
                     WebSocketConnectionRFC6455.VERSION,
-                    _future.getMaskGen());
+                    _future.getMaskGen(),
+                    new WebSocketMetrics(_metrics));
         }
 
         public void onInputShutdown() throws IOException
@@ -614,13 +1189,135 @@ public class WebSocketClientFactory extends AggregateLifeCycle
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Warm Connection.
+     * Holds a connected endpoint, on which TLS completes in the background, until a
+     * connect to the same destination takes it over or it expires.
+     */
+    class WarmConnection extends AbstractConnection implements AsyncConnection
+    {
+        private final SocketChannel _channel;
+        private final AsyncEndPoint _endp;
+        private final String _key;
+        private final Buffer _buffer = new IndirectNIOBuffer(1);
+        private final Expiry _expiry = new Expiry();
+        private volatile AsyncConnection _next;
+        private volatile WebSocketClient.WebSocketFuture _future;
+
+        public WarmConnection(SocketChannel channel, AsyncEndPoint endpoint, String key)
+        {
+            super(endpoint, System.currentTimeMillis());
+            _channel = channel;
+            _endp = endpoint;
+            _key = key;
+        }
+
+        SocketChannel getChannel()
+        {
+            return _channel;
+        }
+
+        /**
+         * Perform the upgrade of the given connect on this connection.
+         *
+         * @param future the connect that claimed this connection
+         */
+        void handOff(WebSocketClient.WebSocketFuture future)
+        {
+            _future = future;
+            try
+            {
+                int maxIdleTime = future.getMaxIdleTime();
+                _endp.setMaxIdleTime(maxIdleTime < 0 ? (int)_selector.getMaxIdleTime() : maxIdleTime);
+            }
+            catch (IOException e)
+            {
+                __log.ignore(e);
+            }
+            _next = new HandshakeConnection(_endp, future);
+            _endp.asyncDispatch();
+
+            if (!_endp.isOpen())
+                future.handshakeFailed(new EOFException());
+        }
+
+        void close()
+        {
+            try
+            {
+                _endp.close();
+            }
+            catch (IOException e)
+            {
+                __log.ignore(e);
+            }
+        }
+
+        public Connection handle() throws IOException
+        {
+            AsyncConnection next = _next;
+            if (next != null)
+                return next;
+
+            // Nothing is expected before the upgrade, so close on data or end of stream
+            _buffer.clear();
+            if (_endp.fill(_buffer) != 0)
+                _endp.close();
+            return this;
+        }
+
+        public void onInputShutdown() throws IOException
+        {
+            _endp.close();
+        }
+
+        public boolean isIdle()
+        {
+            return _next == null;
+        }
+
+        public boolean isSuspended()
+        {
+            return false;
+        }
+
+        public void onClose()
+        {
+            removeWarmConnection(this);
+            _expiry.cancel();
+
+            WebSocketClient.WebSocketFuture future = _future;
+            if (future != null)
+                future.handshakeFailed(new EOFException());
+        }
+
+        private class Expiry extends Timeout.Task implements Runnable
+        {
+            public void run()
+            {
+                if (removeWarmConnection(WarmConnection.this))
+                {
+                    __log.debug("expired {}", WarmConnection.this);
+                    close();
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Warm" + _key + "@" + hashCode();
+        }
+    }
+
     private static class WebSocketClientConnection extends WebSocketConnectionRFC6455
     {
         private final WebSocketClientFactory factory;
 
-        public WebSocketClientConnection(WebSocketClientFactory factory, WebSocket webSocket, EndPoint endPoint, WebSocketBuffers buffers, long timeStamp, int maxIdleTime, String protocol, List<Extension> extensions, int draftVersion, MaskGen maskGen) throws IOException
+        public WebSocketClientConnection(WebSocketClientFactory factory, WebSocket webSocket, EndPoint endPoint, WebSocketBuffers buffers, long timeStamp, int maxIdleTime, String protocol, List<Extension> extensions, int draftVersion, MaskGen maskGen, WebSocketMetrics metrics) throws IOException
         {
-            super(webSocket, endPoint, buffers, timeStamp, maxIdleTime, protocol, extensions, draftVersion, maskGen);
+            super(webSocket, endPoint, buffers, timeStamp, maxIdleTime, protocol, extensions, draftVersion, maskGen, metrics);
             this.factory = factory;
         }
 
@@ -31,11 +31,14 @@ import org.eclipse.jetty.io.AsyncEndPoint;
 import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.nio.SelectorManager;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Timeout;
 import org.eclipse.jetty.websocket.WebSocket.OnBinaryMessage;
 import org.eclipse.jetty.websocket.WebSocket.OnControl;
 import org.eclipse.jetty.websocket.WebSocket.OnFrame;
+import org.eclipse.jetty.websocket.WebSocket.OnMessageStream;
 import org.eclipse.jetty.websocket.WebSocket.OnTextMessage;
 
 import android.text.TextUtils;
@@ -94,6 +97,8 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
     final static int CLOSE_REQUIRED_EXTENSION=1010;
     final static int CLOSE_SERVER_ERROR=1011;
     final static int CLOSE_FAILED_TLS_HANDSHAKE=1015;
+    /** Reported when the peer stops answering keepalive pings; never sent */
+    final static int CLOSE_TIMEOUT=3008;
 
     final static int FLAG_FIN=0x8;
 
@@ -118,14 +123,18 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
     private final WebSocket _webSocket;
     private final OnFrame _onFrame;
     private final OnBinaryMessage _onBinaryMessage;
+    private final OnMessageStream _onMessageStream;
     private final OnTextMessage _onTextMessage;
     private final OnControl _onControl;
     private final String _protocol;
     private final ClassLoader _context;
+    private final WebSocketMetrics _metrics;
+    private volatile KeepAlive _keepAlive;
     private volatile int _closeCode;
     private volatile String _closeMessage;
     private volatile boolean _closedIn;
     private volatile boolean _closedOut;
+    private volatile boolean _closedByPeer;
     private int _maxTextMessageSize=-1;
     private int _maxBinaryMessageSize=-1;
 
@@ -138,13 +147,23 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
     }
 
     private final WebSocket.FrameConnection _connection = new WSFrameConnection();
+    private final WSFrameHandler _frameHandler;
 
     /* ------------------------------------------------------------ */
     public WebSocketConnectionRFC6455(WebSocket websocket, EndPoint endpoint, WebSocketBuffers buffers, long timestamp, int maxIdleTime, String protocol, List<Extension> extensions,int draft, MaskGen maskgen)
         throws IOException
+    {
+        this(websocket,endpoint,buffers,timestamp,maxIdleTime,protocol,extensions,draft,maskgen,new WebSocketMetrics());
+    }
+
+    /* ------------------------------------------------------------ */
+    public WebSocketConnectionRFC6455(WebSocket websocket, EndPoint endpoint, WebSocketBuffers buffers, long timestamp, int maxIdleTime, String protocol, List<Extension> extensions,int draft, MaskGen maskgen, WebSocketMetrics metrics)
+        throws IOException
     {
         super(endpoint,timestamp);
 
+        _metrics=metrics;
+
         _context=Thread.currentThread().getContextClassLoader();
 
         _endp.setMaxIdleTime(maxIdleTime);
@@ -153,11 +172,14 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
         _onFrame=_webSocket instanceof OnFrame ? (OnFrame)_webSocket : null;
         _onTextMessage=_webSocket instanceof OnTextMessage ? (OnTextMessage)_webSocket : null;
         _onBinaryMessage=_webSocket instanceof OnBinaryMessage ? (OnBinaryMessage)_webSocket : null;
+        _onMessageStream=_webSocket instanceof OnMessageStream ? (OnMessageStream)_webSocket : null;
         _onControl=_webSocket instanceof OnControl ? (OnControl)_webSocket : null;
         _generator = new WebSocketGeneratorRFC6455(buffers, _endp,maskgen);
+        _generator.setMetrics(_metrics);
 
         _extensions=extensions;
-        WebSocketParser.FrameHandler frameHandler = new WSFrameHandler();
+        WSFrameHandler frameHandler = new WSFrameHandler(buffers);
+        _frameHandler = frameHandler;
         if (_extensions!=null)
         {
             int e=0;
@@ -175,6 +197,7 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
         WebSocketParser.FrameHandler inbound = (_extensions == null || _extensions.size() == 0) ? frameHandler : extensions.get(0);
 
         _parser = new WebSocketParserRFC6455(buffers, endpoint, inbound,maskgen==null);
+        _parser.setMetrics(_metrics);
 
         _protocol=protocol;
 
@@ -186,6 +209,26 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
         return _connection;
     }
 
+    /* ------------------------------------------------------------ */
+    public WebSocketMetrics getMetrics()
+    {
+        return _metrics;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Ping the peer periodically, and drop the connection when too many pings go unanswered.
+     * @param manager the selector manager whose timeouts drive the pings
+     * @param interval the time between pings in ms
+     * @param maxMissedPongs the number of pings that may go unanswered
+     */
+    public void startKeepAlive(SelectorManager manager, long interval, int maxMissedPongs)
+    {
+        KeepAlive keepAlive = new KeepAlive(manager, interval, Math.max(1, maxMissedPongs));
+        _keepAlive = keepAlive;
+        keepAlive.schedule();
+    }
+
     /* ------------------------------------------------------------ */
     public List<Extension> getExtensions()
     {
@@ -287,6 +330,12 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
         }
         if (closed)
             _webSocket.onClose(WebSocketConnectionRFC6455.CLOSE_NO_CLOSE,"closed");
+        KeepAlive keepAlive = _keepAlive;
+        if (keepAlive != null)
+            keepAlive.cancel();
+        _frameHandler._buffer.release();
+        // Whatever is left in the generator will never be written
+        _metrics.addBuffered(-_metrics.getBuffered());
     }
 
     /* ------------------------------------------------------------ */
@@ -305,6 +354,7 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
             {
                 _closeCode=code;
                 _closeMessage=message;
+                _closedByPeer=true;
             }
         }
 
@@ -377,6 +427,45 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Drop the connection without a closing handshake, which could not complete anyway.
+     */
+    private void abort(int code,String message)
+    {
+        LOG.debug("Abort {} {} {}",this,code,message);
+
+        final boolean tell_app;
+        synchronized (this)
+        {
+            _closedIn=true;
+            _closedOut=true;
+            tell_app=_closeCode==0;
+            if (tell_app)
+            {
+                _closeCode=code;
+                _closeMessage=message;
+            }
+        }
+
+        try
+        {
+            if (tell_app)
+                _webSocket.onClose(code,message);
+        }
+        finally
+        {
+            try
+            {
+                _endp.close();
+            }
+            catch(IOException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+    }
+
     public void shutdown()
     {
         final WebSocket.Connection connection = _connection;
@@ -424,6 +513,7 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
                 throw new IOException("closedOut " + _closeCode + ":" + _closeMessage);
             byte[] data = content.getBytes(_utf8);
             _outbound.addFrame((byte)FLAG_FIN, WebSocketConnectionRFC6455.OP_TEXT, data, 0, data.length);
+            _metrics.onMessagesOut(1);
             checkWriteable();
         }
 
@@ -433,6 +523,39 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
             if (_closedOut)
                 throw new IOException("closedOut " + _closeCode + ":" + _closeMessage);
             _outbound.addFrame((byte)FLAG_FIN, WebSocketConnectionRFC6455.OP_BINARY, content, offset, length);
+            _metrics.onMessagesOut(1);
+            checkWriteable();
+        }
+
+        /* ------------------------------------------------------------ */
+        public void sendMessages(List<?> messages) throws IOException
+        {
+            if (_closedOut)
+                throw new IOException("closedOut " + _closeCode + ":" + _closeMessage);
+            _generator.beginBatch();
+            try
+            {
+                for (Object message : messages)
+                {
+                    if (message instanceof String)
+                    {
+                        byte[] data = ((String)message).getBytes(_utf8);
+                        _outbound.addFrame((byte)FLAG_FIN, WebSocketConnectionRFC6455.OP_TEXT, data, 0, data.length);
+                    }
+                    else if (message instanceof byte[])
+                    {
+                        byte[] data = (byte[])message;
+                        _outbound.addFrame((byte)FLAG_FIN, WebSocketConnectionRFC6455.OP_BINARY, data, 0, data.length);
+                    }
+                    else
+                        throw new IllegalArgumentException("Bad message: " + message);
+                }
+            }
+            finally
+            {
+                _generator.endBatch();
+            }
+            _metrics.onMessagesOut(messages.size());
             checkWriteable();
         }
 
@@ -501,6 +624,12 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
             _maxBinaryMessageSize=size;
         }
 
+        /* ------------------------------------------------------------ */
+        public WebSocketMetrics getMetrics()
+        {
+            return _metrics;
+        }
+
         /* ------------------------------------------------------------ */
         public int getMaxIdleTime()
         {
@@ -631,6 +760,12 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
             return _parser.isFakeFragments();
         }
 
+        /* ------------------------------------------------------------ */
+        public boolean isClosedByPeer()
+        {
+            return _closedByPeer;
+        }
+
         /* ------------------------------------------------------------ */
         @Override
         public String toString()
@@ -645,14 +780,107 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Sends a ping carrying its send time every interval. A pong echoing the time of an
+     * unanswered ping gives the round trip time; too many unanswered pings abort the connection.
+     */
+    private class KeepAlive extends Timeout.Task implements Runnable
+    {
+        private final SelectorManager _manager;
+        private final long _interval;
+        private final int _maxMissedPongs;
+        private long _firstPing;
+        private long _lastPing;
+        private int _missed;
+
+        KeepAlive(SelectorManager manager, long interval, int maxMissedPongs)
+        {
+            _manager = manager;
+            _interval = interval;
+            _maxMissedPongs = maxMissedPongs;
+        }
+
+        void schedule()
+        {
+            _manager.scheduleTimeout(this, _interval);
+        }
+
+        public void run()
+        {
+            if (_closedOut || !_endp.isOpen())
+                return;
+
+            byte[] payload = new byte[8];
+            boolean dead;
+            synchronized (this)
+            {
+                dead = _missed >= _maxMissedPongs;
+                if (!dead)
+                {
+                    long now = System.nanoTime();
+                    if (_missed++ == 0)
+                        _firstPing = now;
+                    _lastPing = now;
+                    for (int i = payload.length; i-- > 0; now >>>= 8)
+                        payload[i] = (byte)now;
+                }
+            }
+
+            if (dead)
+            {
+                abort(WebSocketConnectionRFC6455.CLOSE_TIMEOUT, "No pong for " + _maxMissedPongs + " pings");
+                return;
+            }
+
+            try
+            {
+                _connection.sendControl(WebSocketConnectionRFC6455.OP_PING, payload, 0, payload.length);
+                schedule();
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+
+        void onPong(byte[] array, int offset, int length)
+        {
+            if (length != 8)
+                return;
+
+            long sent = 0;
+            for (int i = 0; i < length; i++)
+                sent = (sent << 8) | (array[offset + i] & 0xff);
+
+            long rtt;
+            synchronized (this)
+            {
+                // Ignore unsolicited pongs and pongs for pings already answered
+                if (_missed == 0 || sent - _firstPing < 0 || sent - _lastPing > 0)
+                    return;
+                _missed = 0;
+                rtt = System.nanoTime() - sent;
+            }
+            _metrics.onRoundTrip(rtt);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
     private class WSFrameHandler implements WebSocketParser.FrameHandler
     {
         private static final int MAX_CONTROL_FRAME_PAYLOAD = 125;
-        private static final int INITIAL_CAPACITY = 8192;
-        private WebSocketBuffer _buffer = new WebSocketBuffer(INITIAL_CAPACITY);
+        private final WebSocketBuffer _buffer;
         private byte _opcode = -1;
+        private boolean _streaming;
+        private long _position;
 
-        private boolean excess(int opcode, int length)
+        WSFrameHandler(WebSocketBuffers buffers)
+        {
+            _buffer = new WebSocketBuffer(buffers, buffers.getBufferSize());
+        }
+
+        private boolean excess(int opcode, long length)
         {
             switch (opcode)
             {
@@ -719,10 +947,16 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
                     if (_opcode != -1)
                     {
                         _buffer.clear();
+                        _streaming = false;
                         errorClose(WebSocketConnectionRFC6455.CLOSE_PROTOCOL, "Expected Continuation" + Integer.toHexString(opcode));
                         return;
                     }
                     _opcode = opcode;
+                    if (!isLastFrame(flags) && _onMessageStream != null && _onMessageStream.onMessageStart(opcode))
+                    {
+                        _streaming = true;
+                        _position = 0;
+                    }
                 }
                 case WebSocketConnectionRFC6455.OP_CONTINUATION:
                 {
@@ -732,7 +966,7 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
                         errorClose(WebSocketConnectionRFC6455.CLOSE_PROTOCOL, "Bad Continuation");
                         return;
                     }
-                    if (excess(_opcode, _buffer.length() + length))
+                    if (excess(_opcode, (_streaming ? _position : _buffer.length()) + length))
                     {
                         switch (_opcode)
                         {
@@ -744,7 +978,20 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
                                 return;
                         }
                     }
-                    if (isLastFrame(flags))
+                    if (_streaming)
+                    {
+                        // Pass the fragment on as it is, without aggregating it
+                        _onMessageStream.onMessageFragment(array, offset, length, _position);
+                        _position += length;
+                        if (isLastFrame(flags))
+                        {
+                            _opcode = -1;
+                            _streaming = false;
+                            _onMessageStream.onMessageEnd(_position);
+                            _metrics.onMessageIn();
+                        }
+                    }
+                    else if (isLastFrame(flags))
                     {
                         switch (_opcode)
                         {
@@ -755,7 +1002,9 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
                                 }
                                 else
                                 {
-                                    _onTextMessage.onMessage(_buffer.append(array, offset, length).toString(_utf8));
+                                    String message = _buffer.append(array, offset, length).toString(_utf8);
+                                    _buffer.clear();
+                                    _onTextMessage.onMessage(message);
                                 }
                                 break;
                             case WebSocketConnectionRFC6455.OP_BINARY:
@@ -765,12 +1014,15 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
                                 }
                                 else
                                 {
-                                    _onBinaryMessage.onMessage(_buffer.append(array, offset, length).array(), 0, _buffer.length());
+                                    byte[] message = _buffer.append(array, offset, length).toArray();
+                                    _buffer.clear();
+                                    _onBinaryMessage.onMessage(message, 0, message.length);
                                 }
                                 break;
                         }
                         _opcode = -1;
                         _buffer.clear();
+                        _metrics.onMessageIn();
                     }
                     else
                     {
@@ -799,6 +1051,9 @@ public class WebSocketConnectionRFC6455 extends AbstractConnection implements We
                 case WebSocketConnectionRFC6455.OP_PONG:
                 {
                     LOG.debug("PONG {}",this);
+                    KeepAlive keepAlive = _keepAlive;
+                    if (keepAlive != null)
+                        keepAlive.onPong(array, offset, length);
                     break;
                 }
 
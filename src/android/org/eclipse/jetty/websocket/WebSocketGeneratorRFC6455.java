@@ -43,11 +43,15 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
     private final WebSocketBuffers _buffers;
     private final EndPoint _endp;
     private final byte[] _mask = new byte[4];
+    private final Masker _masker = new Masker();
     private final MaskGen _maskGen;
     private Buffer _buffer;
     private int _m;
     private boolean _opsent;
     private boolean _closed;
+    private boolean _batching;
+    private WebSocketMetrics _metrics;
+    private int _buffered;
 
     public WebSocketGeneratorRFC6455(WebSocketBuffers buffers, EndPoint endp)
     {
@@ -61,6 +65,14 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
         _maskGen = maskGen;
     }
 
+    /**
+     * @param metrics the metrics to count written frames and bytes in
+     */
+    public void setMetrics(WebSocketMetrics metrics)
+    {
+        _metrics = metrics;
+    }
+
     public Buffer getBuffer()
     {
         _lock.lock();
@@ -74,6 +86,40 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
         }
     }
 
+    /**
+     * Start a batch of frames.
+     * Until {@link #endBatch()} is called, the generator lock is held and frames are only
+     * written when the buffer fills up, so that the whole batch goes out in as few writes as possible.
+     */
+    public void beginBatch()
+    {
+        _lock.lock();
+        _batching = true;
+    }
+
+    /**
+     * End a batch of frames and write what has been buffered.
+     * @throws IOException
+     */
+    public void endBatch() throws IOException
+    {
+        try
+        {
+            _batching = false;
+            flushBuffer();
+            if (_buffer != null && _buffer.length() == 0)
+            {
+                _buffers.returnBuffer(_buffer);
+                _buffer = null;
+            }
+            updateBuffered();
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
     public void addFrame(byte flags, byte opcode, byte[] content, int offset, int length) throws IOException
     {
         _lock.lock();
@@ -90,18 +136,21 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
                 _buffer = mask ? _buffers.getBuffer() : _buffers.getDirectBuffer();
 
             boolean last = WebSocketConnectionRFC6455.isLastFrame(flags);
+            // Control frames may be sent between the fragments of a message
+            boolean control = WebSocketConnectionRFC6455.isControlFrame(opcode);
 
             int space = mask ? 14 : 10;
 
             do
             {
-                if (_opsent)
+                if (_opsent && !control)
                 {
                     flags &= 0x0b;
                     opcode = WebSocketConnectionRFC6455.OP_CONTINUATION;
                 }
                 opcode = (byte)(((0xf & flags) << 4) + (0xf & opcode));
-                _opsent = true;
+                if (!control)
+                    _opsent = true;
 
                 int payload = length;
                 if (payload + space > _buffer.capacity())
@@ -151,6 +200,9 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
                             (byte)(mask ? (0x80 | payload) : payload)});
                 }
 
+                if (_metrics != null)
+                    _metrics.onFrameOut();
+
                 // write mask
                 if (mask)
                 {
@@ -166,10 +218,16 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
                     _buffer.compact();
                     int chunk = remaining < _buffer.space() ? remaining : _buffer.space();
 
-                    if (mask)
+                    if (mask && _buffer.array() != null)
+                    {
+                        int index = _buffer.putIndex();
+                        _buffer.put(content, offset + (payload - remaining), chunk);
+                        _m = _masker.mask(_buffer.array(), index, chunk, _mask, _m);
+                    }
+                    else if (mask)
                     {
                         for (int i = 0; i < chunk; i++)
-                            _buffer.put((byte)(content[offset + (payload - remaining) + i] ^ _mask[+_m++ % 4]));
+                            _buffer.put((byte)(content[offset + (payload - remaining) + i] ^ _mask[_m++ & 3]));
                     }
                     else
                         _buffer.put(content, offset + (payload - remaining), chunk);
@@ -178,13 +236,14 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
                     if (_buffer.space() > 0)
                     {
                         // Gently flush the data, issuing a non-blocking write
-                        flushBuffer();
+                        if (!_batching)
+                            flushBuffer();
                     }
                     else
                     {
                         // Forcibly flush the data, issuing a blocking write
                         flush();
-                        if (remaining == 0)
+                        if (remaining == 0 && !_batching)
                         {
                             // Gently flush the data, issuing a non-blocking write
                             flushBuffer();
@@ -195,13 +254,15 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
                 length -= payload;
             }
             while (length > 0);
-            _opsent = !last;
+            if (!control)
+                _opsent = !last;
 
             if (_buffer != null && _buffer.length() == 0)
             {
                 _buffers.returnBuffer(_buffer);
                 _buffer = null;
             }
+            updateBuffered();
         }
         finally
         {
@@ -224,6 +285,9 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
                 int flushed = _buffer.hasContent() ? _endp.flush(_buffer) : 0;
                 if (_closed && _buffer.length() == 0)
                     _endp.shutdownOutput();
+                if (_metrics != null && flushed > 0)
+                    _metrics.addBytesOut(flushed);
+                updateBuffered();
                 return flushed;
             }
 
@@ -286,6 +350,19 @@ public class WebSocketGeneratorRFC6455 implements WebSocketGenerator
         }
     }
 
+    /**
+     * Report a change of the buffered bytes to the metrics. Called with the lock held.
+     */
+    private void updateBuffered()
+    {
+        int buffered = _buffer == null ? 0 : _buffer.length();
+        if (_metrics != null && buffered != _buffered)
+        {
+            _metrics.addBuffered(buffered - _buffered);
+            _buffered = buffered;
+        }
+    }
+
     public void returnBuffer()
     {
         _lock.lock();
@@ -0,0 +1,337 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2015 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jetty.util.StripedCounter;
+
+/* ------------------------------------------------------------ */
+/** Counters of a WebSocket connection.
+ * <p>
+ * Each connection updates its own counters and those of its parent, which
+ * normally belongs to the {@link WebSocketClientFactory} and holds the totals of all
+ * its connections. A connection is rarely updated by more than one thread at a time,
+ * so it uses a single stripe, while the totals use one stripe per processor.
+ */
+public class WebSocketMetrics
+{
+    /** Upper bounds (in ms) of the round trip time histogram buckets; the last bucket is unbounded */
+    private static final long[] __ROUND_TRIP_BOUNDS = { 25, 50, 100, 200, 500, 1000, 2000 };
+
+    private final WebSocketMetrics _parent;
+    private final StripedCounter _bytesIn;
+    private final StripedCounter _bytesOut;
+    private final StripedCounter _framesIn;
+    private final StripedCounter _framesOut;
+    private final StripedCounter _messagesIn;
+    private final StripedCounter _messagesOut;
+    private final StripedCounter _deflateIn;
+    private final StripedCounter _deflateOut;
+    private final StripedCounter _inflateIn;
+    private final StripedCounter _inflateOut;
+    private final StripedCounter _fakeFragments;
+    private final StripedCounter _buffered;
+    private final AtomicLongArray _roundTrips = new AtomicLongArray(__ROUND_TRIP_BOUNDS.length + 1);
+    private volatile long _lastRoundTrip = -1;
+
+    /* ------------------------------------------------------------ */
+    public WebSocketMetrics()
+    {
+        this(null);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param parent the metrics to add to as well, or null
+     */
+    public WebSocketMetrics(WebSocketMetrics parent)
+    {
+        _parent = parent;
+        int stripes = parent == null ? Runtime.getRuntime().availableProcessors() : 1;
+        _bytesIn = new StripedCounter(stripes);
+        _bytesOut = new StripedCounter(stripes);
+        _framesIn = new StripedCounter(stripes);
+        _framesOut = new StripedCounter(stripes);
+        _messagesIn = new StripedCounter(stripes);
+        _messagesOut = new StripedCounter(stripes);
+        _deflateIn = new StripedCounter(stripes);
+        _deflateOut = new StripedCounter(stripes);
+        _inflateIn = new StripedCounter(stripes);
+        _inflateOut = new StripedCounter(stripes);
+        _fakeFragments = new StripedCounter(stripes);
+        _buffered = new StripedCounter(stripes);
+    }
+
+    /* ------------------------------------------------------------ */
+    public WebSocketMetrics getParent()
+    {
+        return _parent;
+    }
+
+    /* ------------------------------------------------------------ */
+    void addBytesIn(long bytes)
+    {
+        _bytesIn.add(bytes);
+        if (_parent != null)
+            _parent.addBytesIn(bytes);
+    }
+
+    /* ------------------------------------------------------------ */
+    void addBytesOut(long bytes)
+    {
+        _bytesOut.add(bytes);
+        if (_parent != null)
+            _parent.addBytesOut(bytes);
+    }
+
+    /* ------------------------------------------------------------ */
+    void onFrameIn()
+    {
+        _framesIn.increment();
+        if (_parent != null)
+            _parent.onFrameIn();
+    }
+
+    /* ------------------------------------------------------------ */
+    void onFrameOut()
+    {
+        _framesOut.increment();
+        if (_parent != null)
+            _parent.onFrameOut();
+    }
+
+    /* ------------------------------------------------------------ */
+    void onMessageIn()
+    {
+        _messagesIn.increment();
+        if (_parent != null)
+            _parent.onMessageIn();
+    }
+
+    /* ------------------------------------------------------------ */
+    void onMessagesOut(int messages)
+    {
+        _messagesOut.add(messages);
+        if (_parent != null)
+            _parent.onMessagesOut(messages);
+    }
+
+    /* ------------------------------------------------------------ */
+    void onDeflate(long in, long out)
+    {
+        _deflateIn.add(in);
+        _deflateOut.add(out);
+        if (_parent != null)
+            _parent.onDeflate(in, out);
+    }
+
+    /* ------------------------------------------------------------ */
+    void onInflate(long in, long out)
+    {
+        _inflateIn.add(in);
+        _inflateOut.add(out);
+        if (_parent != null)
+            _parent.onInflate(in, out);
+    }
+
+    /* ------------------------------------------------------------ */
+    void onFakeFragment()
+    {
+        _fakeFragments.increment();
+        if (_parent != null)
+            _parent.onFakeFragment();
+    }
+
+    /* ------------------------------------------------------------ */
+    void addBuffered(long bytes)
+    {
+        _buffered.add(bytes);
+        if (_parent != null)
+            _parent.addBuffered(bytes);
+    }
+
+    /* ------------------------------------------------------------ */
+    void onRoundTrip(long nanos)
+    {
+        long ms = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < __ROUND_TRIP_BOUNDS.length && ms > __ROUND_TRIP_BOUNDS[bucket])
+            bucket++;
+        _roundTrips.incrementAndGet(bucket);
+        _lastRoundTrip = ms;
+        if (_parent != null)
+            _parent.onRoundTrip(nanos);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the bytes read from the network
+     */
+    public long getBytesIn()
+    {
+        return _bytesIn.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the bytes written to the network
+     */
+    public long getBytesOut()
+    {
+        return _bytesOut.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the frames parsed, including fake fragments
+     */
+    public long getFramesIn()
+    {
+        return _framesIn.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the frames generated, including control frames
+     */
+    public long getFramesOut()
+    {
+        return _framesOut.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the messages delivered to the {@link WebSocket}
+     */
+    public long getMessagesIn()
+    {
+        return _messagesIn.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the messages sent
+     */
+    public long getMessagesOut()
+    {
+        return _messagesOut.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the payload bytes given to the deflater
+     */
+    public long getDeflateIn()
+    {
+        return _deflateIn.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the payload bytes produced by the deflater
+     */
+    public long getDeflateOut()
+    {
+        return _deflateOut.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the payload bytes given to the inflater
+     */
+    public long getInflateIn()
+    {
+        return _inflateIn.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the payload bytes produced by the inflater
+     */
+    public long getInflateOut()
+    {
+        return _inflateOut.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the frames delivered as fake fragments because they did not fit in the buffer
+     */
+    public long getFakeFragments()
+    {
+        return _fakeFragments.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the bytes waiting in the generator buffer
+     */
+    public long getBuffered()
+    {
+        return _buffered.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the last keepalive round trip time in ms, or -1 if none was measured
+     */
+    public long getLastRoundTrip()
+    {
+        return _lastRoundTrip;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of keepalive round trips in each bucket of {@link #getRoundTripBounds()},
+     * plus one for those above the last bound
+     */
+    public long[] getRoundTrips()
+    {
+        long[] counts = new long[_roundTrips.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = _roundTrips.get(i);
+        return counts;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the upper bounds (in ms) of the round trip time buckets
+     */
+    public static long[] getRoundTripBounds()
+    {
+        return __ROUND_TRIP_BOUNDS.clone();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x in=%d/%d/%d out=%d/%d/%d buffered=%d",
+                getClass().getSimpleName(),
+                hashCode(),
+                getBytesIn(),
+                getFramesIn(),
+                getMessagesIn(),
+                getBytesOut(),
+                getFramesOut(),
+                getMessagesOut(),
+                getBuffered());
+    }
+}
@@ -65,9 +65,11 @@ public class WebSocketParserRFC6455 implements WebSocketParser
     private long _length;
     private boolean _masked;
     private final byte[] _mask = new byte[4];
+    private final Masker _masker = new Masker();
     private int _m;
     private boolean _skip;
     private boolean _fragmentFrames=true;
+    private WebSocketMetrics _metrics;
 
     /* ------------------------------------------------------------ */
     /**
@@ -105,6 +107,15 @@ public class WebSocketParserRFC6455 implements WebSocketParser
         _fragmentFrames = fakeFragments;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param metrics the metrics to count read frames and bytes in
+     */
+    public void setMetrics(WebSocketMetrics metrics)
+    {
+        _metrics = metrics;
+    }
+
     /* ------------------------------------------------------------ */
     public boolean isBufferEmpty()
     {
@@ -156,14 +167,16 @@ public class WebSocketParserRFC6455 implements WebSocketParser
                         {
                             if (data.array()==null)
                                 data=_buffer.asMutableBuffer();
-                            byte[] array = data.array();
-                            final int end=data.putIndex();
-                            for (int i=data.getIndex();i<end;i++)
-                                array[i]^=_mask[_m++%4];
+                            _m=_masker.mask(data.array(),data.getIndex(),data.length(),_mask,_m);
                         }
 
                         _bytesNeeded-=data.length();
                         progress=true;
+                        if (_metrics!=null)
+                        {
+                            _metrics.onFrameIn();
+                            _metrics.onFakeFragment();
+                        }
                         _handler.onFrame((byte)(_flags&(0xff^WebSocketConnectionRFC6455.FLAG_FIN)), _opcode, data.array(), data.getIndex(), data.length());
 
                         _opcode=WebSocketConnectionRFC6455.OP_CONTINUATION;
@@ -178,6 +191,8 @@ public class WebSocketParserRFC6455 implements WebSocketParser
                 {
                     filled=_endp.isInputShutdown()?-1:_endp.fill(_buffer);
                     available=_buffer.length();
+                    if (_metrics!=null && filled>0)
+                        _metrics.addBytesIn(filled);
                     // System.err.printf(">> filled %d/%d%n",filled,available);
                     if (filled<=0)
                         break;
@@ -335,13 +350,12 @@ public class WebSocketParserRFC6455 implements WebSocketParser
                     {
                         if (data.array()==null)
                             data=_buffer.asMutableBuffer();
-                        byte[] array = data.array();
-                        final int end=data.putIndex();
-                        for (int i=data.getIndex();i<end;i++)
-                            array[i]^=_mask[_m++%4];
+                        _m=_masker.mask(data.array(),data.getIndex(),data.length(),_mask,_m);
                     }
 
                     progress=true;
+                    if (_metrics!=null)
+                        _metrics.onFrameIn();
                     _handler.onFrame(_flags, _opcode, data.array(), data.getIndex(), data.length());
                     _bytesNeeded=0;
                     _state=State.START;
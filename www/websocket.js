@@ -26,23 +26,82 @@
     var BuiltinWebSocket = window.WebSocket,
         exec = require('cordova/exec'),
         identifier = 0,
+        COMMAND_VERSION = '1',
         listeners = {},
         taskQueue = {
             uuid: require('cordova/utils').createUUID(),
             tasks: [],
+            head: 0,
             push: function (fn) {
                 this.tasks.push(fn);
                 window.postMessage(this.uuid, '*');
             },
             listener: function (event) {
+                var fn;
+
                 if (event.source === window && event.data === taskQueue.uuid) {
                     event.stopPropagation();
-                    if (taskQueue.tasks.length) {
-                        taskQueue.tasks.shift()();
+                    if (taskQueue.head < taskQueue.tasks.length) {
+                        fn = taskQueue.tasks[taskQueue.head];
+                        taskQueue.tasks[taskQueue.head++] = null;
+                        if (taskQueue.head === taskQueue.tasks.length) {
+                            taskQueue.tasks = [];
+                            taskQueue.head = 0;
+                        }
+                        fn();
+                    }
+                }
+            }
+        },
+        sendQueue = {
+            pending: {},
+            push: function (ws, type, data, size) {
+                var id = ws.__getId__(), q = this.pending[id];
+
+                if (!q) {
+                    // messages sent in the same tick go to the native side together
+                    q = this.pending[id] = { ws: ws, types: '', data: [], size: 0 };
+                    taskQueue.push(function () {
+                        sendQueue.flush(id);
+                    });
+                }
+                q.types += type;
+                q.data.push(data);
+                q.size += size;
+            },
+            flush: function (id) {
+                var q = this.pending[id], done;
+
+                if (q) {
+                    delete this.pending[id];
+                    // the native side answers once the messages have been written
+                    done = function () {
+                        q.ws.__release__(q.size);
+                    };
+                    if (q.data.length > 1) {
+                        exec(done, done, 'WebSocket', 'sendBatch', [id, q.types].concat(q.data));
+                    } else if (q.types === '0') {
+                        exec(done, done, 'WebSocket', 'send', [id + COMMAND_VERSION + q.data[0]]);
+                    } else {
+                        exec(done, done, 'WebSocket', 'sendBinary', [id, q.data[0]]);
                     }
                 }
             }
         },
+        utf8Length = function (str) {
+            var i, c, len = str.length, n = len;
+
+            for (i = 0; i < len; i++) {
+                c = str.charCodeAt(i);
+                if (c >= 0x800) {
+                    // a surrogate pair is 4 bytes, 2 for each half
+                    n += c >= 0xd800 && c <= 0xdfff ? 1 : 2;
+                } else if (c >= 0x80) {
+                    n++;
+                }
+            }
+            return n;
+        },
         createMessage = function (type, data, origin) {
             var evt = document.createEvent('Event');
 
@@ -57,34 +116,56 @@
                 evt.code = parseInt(data.substring(1, 5), 10) || 0;
                 evt.reason = data.substring(5);
                 break;
+            case 'reconnecting':
+                evt.code = parseInt(data.substring(0, 4), 10) || 0;
+                evt.delay = parseInt(data.substring(4), 10) || 0;
+                break;
             }
             return evt;
         },
         Blob = (function () {
             if (typeof window.WebKitBlobBuilder === 'function') {
                 return function (data) {
-                    var blob = new window.WebKitBlobBuilder();
-                    blob.append(data[0]);
+                    var i, len, blob = new window.WebKitBlobBuilder();
+
+                    for (i = 0, len = data.length; i < len; i++) {
+                        blob.append(data[i]);
+                    }
                     return blob.getBlob();
                 };
             }
             return window.Blob;
         }()),
-        binaryToString = function (data, onComplete) {
-            var blob, r;
+        binaryToArrayBuffer = function (data, onComplete) {
+            var r;
 
-            if (data instanceof window.ArrayBuffer || data.buffer instanceof window.ArrayBuffer) {
-                blob = new Blob([data.buffer || data]);
+            if (data instanceof window.ArrayBuffer) {
+                onComplete(data);
+            } else if (data.buffer instanceof window.ArrayBuffer) {
+                if (data.byteOffset === 0 && data.byteLength === data.buffer.byteLength) {
+                    onComplete(data.buffer);
+                } else {
+                    // send only the bytes covered by the view
+                    onComplete(new window.Uint8Array(new window.Uint8Array(data.buffer, data.byteOffset, data.byteLength)).buffer);
+                }
             } else if (data instanceof window.Blob) {
-                blob = data;
+                r = new window.FileReader();
+                r.onload = function () {
+                    onComplete(this.result);
+                };
+                r.readAsArrayBuffer(data);
             } else {
                 throw new TypeError('\'%s\' is not a valid value for binaryType.'.replace('%s', typeof data));
             }
-            r = new window.FileReader();
-            r.onload = function () {
-                onComplete(this.result);
-            };
-            r.readAsDataURL(blob);
+        },
+        arrayBufferToBinary = function (buffer, binaryType) {
+            if (binaryType === 'arraybuffer') {
+                return buffer;
+            }
+            if (binaryType === 'blob') {
+                return new Blob([buffer]);
+            }
+            throw new TypeError('\'%s\' is not a valid value for binaryType.'.replace('%s', binaryType));
         },
         stringToBinary = function (data, size, binaryType) {
             var i, len, array;
@@ -93,13 +174,29 @@
             for (i = 0, len = data.length; i < len; i++) {
                 array[i] = data.charCodeAt(i);
             }
-            if (binaryType === 'arraybuffer') {
-                return array.buffer;
+            return arrayBufferToBinary(array.buffer, binaryType);
+        },
+        stringToArrayBuffer = function (data) {
+            var i, len, array;
+
+            array = new window.Uint8Array(data.length);
+            for (i = 0, len = data.length; i < len; i++) {
+                array[i] = data.charCodeAt(i);
             }
+            return array.buffer;
+        },
+        partsToBinary = function (parts, size, binaryType) {
+            var i, len, offset, array;
+
             if (binaryType === 'blob') {
-                return new Blob([array.buffer]);
+                return new Blob(parts);
             }
-            throw new TypeError('\'%s\' is not a valid value for binaryType.'.replace('%s', binaryType));
+            array = new window.Uint8Array(size);
+            for (i = 0, len = parts.length, offset = 0; i < len; i++) {
+                array.set(new window.Uint8Array(parts[i]), offset);
+                offset += parts[i].byteLength;
+            }
+            return arrayBufferToBinary(array.buffer, binaryType);
         },
         EventTarget = function () {
             this.addEventListener = function (type, listener) {
@@ -132,25 +229,60 @@
             this.CLOSING = 2;
             this.CLOSED = 3;
             this.send = function (data) {
-                var that = this;
+                var that = this, size;
 
                 if (typeof data === 'string') {
-                    exec(null, null, 'WebSocket', 'send', [that.__getId__() + '0' + data]);
+                    size = utf8Length(data);
+                    this.__reserve__(size);
+                    sendQueue.push(that, '0', data, size);
                 } else {
-                    binaryToString(data, function (blob) {
-                        exec(null, null, 'WebSocket', 'send', [that.__getId__() + '1' + blob]);
+                    size = data instanceof window.Blob ? data.size : data.byteLength || 0;
+                    this.__reserve__(size);
+                    binaryToArrayBuffer(data, function (buffer) {
+                        sendQueue.push(that, '1', buffer, size);
                     });
                 }
             };
+            this.sendFile = function (path, options, onSuccess, onError) {
+                var onProgress;
+
+                if (typeof options === 'function') {
+                    onError = onSuccess;
+                    onSuccess = options;
+                    options = {};
+                }
+                options = options || {};
+                onProgress = options.onprogress;
+                sendQueue.flush(this.__getId__());
+                exec(function (progress) {
+                    if (!progress.done) {
+                        if (onProgress) {
+                            onProgress(progress);
+                        }
+                    } else if (onSuccess) {
+                        onSuccess(progress);
+                    }
+                }, onError, 'WebSocket', 'sendFile', [this.__getId__(), path, { fragmentSize: options.fragmentSize || 0 }]);
+            };
+            this.getStats = function (onSuccess, onError) {
+                exec(onSuccess, onError, 'WebSocket', 'stats', [this.__getId__()]);
+            };
             this.close = function (code, reason) {
                 if (this.readyState === this.CONNECTING || this.readyState === this.OPEN) {
                     this.readyState = this.CLOSING;
-                    exec(null, null, 'WebSocket', 'close', [this.__getId__(), code || 0, reason || '']);
+                    sendQueue.flush(this.__getId__());
+                    exec(null, null, 'WebSocket', 'close',
+                        [this.__getId__() + COMMAND_VERSION + ('000' + (code || 0)).slice(-4) + (reason || '')]);
                 }
             };
         },
         WebSocket = function (url, protocols) {
-            var i, len, that = this, id = ('0000000' + identifier.toString(16)).slice(-8);
+            var i, len, createTask, that = this, id = ('0000000' + identifier.toString(16)).slice(-8),
+                options = WebSocket.pluginOptions || {},
+                highWaterMark = options.highWaterMark || 0,
+                lowWaterMark = options.lowWaterMark || 0,
+                needDrain = false,
+                parts = null;
 
             if (this === window) {
                 throw new TypeError('Failed to construct \'WebSocket\': ' +
@@ -189,17 +321,60 @@
             this.onmessage = null;
             this.onerror = null;
             this.onclose = null;
+            this.ondrain = null;
+            this.onreconnecting = null;
             this.extensions = '';
             this.protocol = '';
             this.__getId__ = function () {
                 return id;
             };
+            this.__reserve__ = function (size) {
+                if (highWaterMark > 0) {
+                    if (that.bufferedAmount + size > highWaterMark) {
+                        needDrain = true;
+                        throw new Error('Failed to execute \'send\' on \'WebSocket\': ' +
+                            'The buffered amount would exceed the high water mark.');
+                    }
+                    needDrain = needDrain || that.bufferedAmount + size >= highWaterMark;
+                }
+                that.bufferedAmount += size;
+            };
+            this.__release__ = function (size) {
+                that.bufferedAmount -= size;
+                if (needDrain && that.bufferedAmount <= lowWaterMark) {
+                    needDrain = false;
+                    taskQueue.push(function () {
+                        var evt = createMessage('drain');
+
+                        if (that.ondrain) {
+                            that.ondrain(evt);
+                        }
+                        that.dispatchEvent(evt);
+                    });
+                }
+            };
             listeners[id] = {};
 
-            exec(function (data) {
+            createTask = function (data) {
+                var i, j, batch;
+
+                if (data instanceof window.ArrayBuffer) {
+                    return function () {
+                        if (parts) {
+                            parts.push(data);
+                            return;
+                        }
+                        var evt = createMessage('message', arrayBufferToBinary(data, that.binaryType), that.url);
+
+                        if (that.onmessage) {
+                            that.onmessage(evt);
+                        }
+                        that.dispatchEvent(evt);
+                    };
+                }
                 switch (data[0]) {
                 case 'O':
-                    taskQueue.push(function () {
+                    return function () {
                         var evt = createMessage('open'),
                             param = JSON.parse(data.substring(1));
 
@@ -210,20 +385,18 @@
                             that.onopen(evt);
                         }
                         that.dispatchEvent(evt);
-                    });
-                    break;
+                    };
                 case 'T':
-                    taskQueue.push(function () {
+                    return function () {
                         var evt = createMessage('message', data.substring(1), that.url);
 
                         if (that.onmessage) {
                             that.onmessage(evt);
                         }
                         that.dispatchEvent(evt);
-                    });
-                    break;
+                    };
                 case 'B':
-                    taskQueue.push(function () {
+                    return function () {
                         var evt = createMessage('message',
                                 stringToBinary(data.substring(9), parseInt(data.substring(1, 9), 16),
                                     that.binaryType), that.url);
@@ -232,20 +405,82 @@
                             that.onmessage(evt);
                         }
                         that.dispatchEvent(evt);
-                    });
-                    break;
+                    };
+                case 'F':
+                    // a binary message that has been written into a file
+                    return function () {
+                        var evt = createMessage('message', JSON.parse(data.substring(1)), that.url);
+
+                        if (that.onmessage) {
+                            that.onmessage(evt);
+                        }
+                        that.dispatchEvent(evt);
+                    };
+                case 'S':
+                    // the start of a binary message that is passed in parts
+                    return function () {
+                        parts = [];
+                    };
+                case 'P':
+                    return function () {
+                        parts.push(stringToArrayBuffer(data.substring(1)));
+                    };
+                case 'E':
+                    return function () {
+                        var evt = createMessage('message',
+                                partsToBinary(parts, parseInt(data.substring(1), 16), that.binaryType), that.url);
+
+                        parts = null;
+                        if (that.onmessage) {
+                            that.onmessage(evt);
+                        }
+                        that.dispatchEvent(evt);
+                    };
                 case 'C':
-                    taskQueue.push(function () {
+                    return function () {
                         var evt = createMessage('close', data.substring(1));
 
+                        parts = null;
                         that.readyState = that.CLOSED;
                         if (that.onclose) {
                             that.onclose(evt);
                         }
                         that.dispatchEvent(evt);
                         delete listeners[that.__getId__()];
-                    });
-                    break;
+                    };
+                case 'R':
+                    return function () {
+                        var evt = createMessage('reconnecting', data.substring(1));
+
+                        parts = null;
+                        that.readyState = that.CONNECTING;
+                        if (that.onreconnecting) {
+                            that.onreconnecting(evt);
+                        }
+                        that.dispatchEvent(evt);
+                    };
+                case 'M':
+                    // a batch of messages, each prefixed with its length in 8 hex digits
+                    batch = [];
+                    for (i = 1; i < data.length; i = j) {
+                        j = i + 8 + parseInt(data.substring(i, i + 8), 16);
+                        batch.push(createTask(data.substring(i + 8, j)));
+                    }
+                    return function () {
+                        var k, len;
+
+                        for (k = 0, len = batch.length; k < len; k++) {
+                            batch[k]();
+                        }
+                    };
+                }
+            };
+
+            exec(function (data) {
+                var task = createTask(data);
+
+                if (task) {
+                    taskQueue.push(task);
                 }
             }, function () {
                 taskQueue.push(function () {
@@ -256,7 +491,7 @@
                     }
                     that.dispatchEvent(evt);
                 });
-            }, 'WebSocket', 'create', [identifier++, url, protocols, location.origin, navigator.userAgent, WebSocket.pluginOptions || {}]);
+            }, 'WebSocket', 'create', [identifier++, url, protocols, location.origin, navigator.userAgent, options]);
         },
         ver = /Chrome\/(\d+)/.exec(navigator.userAgent);
 
@@ -269,6 +504,17 @@
     WebSocket.CLOSING = 2;
     WebSocket.CLOSED = 3;
     WebSocket.pluginOptions = {};
+    WebSocket.getStats = function (onSuccess, onError) {
+        exec(onSuccess, onError, 'WebSocket', 'stats', []);
+    };
+    WebSocket.prewarm = function (urls, options, onSuccess, onError) {
+        if (typeof options === 'function') {
+            onError = onSuccess;
+            onSuccess = options;
+            options = {};
+        }
+        exec(onSuccess, onError, 'WebSocket', 'prewarm', [[].concat(urls), options || {}]);
+    };
     module.exports = WebSocket;
     window.addEventListener('message', taskQueue.listener, true);
 